@@ -20,14 +20,25 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xeustechnologies.jcl.exception.JclException;
 import org.xeustechnologies.jcl.exception.ResourceNotFoundException;
-import org.xeustechnologies.jcl.utils.Utils;
+import org.xeustechnologies.jcl.exception.StacklessClassNotFoundException;
+import org.xeustechnologies.jcl.utils.WildcardMatcher;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Abstract class loader that can load classes from different resources
@@ -37,13 +48,40 @@ import java.util.regex.Pattern;
 @SuppressWarnings("unchecked")
 public abstract class AbstractClassLoader extends ClassLoader {
 
-    // we could use concurrent sorted set like ConcurrentSkipListSet here instead, which would be automatically sorted
-    // and wouldn't require the lock.
-    // But that was added in 1.6, and according to Maven we're targeting 1.5+.
+    static {
+        registerAsParallelCapable();
+    }
+
+    /**
+     * Immutable snapshot of the loaders, sorted by order. Lookups iterate over
+     * it without locking; changes publish a new snapshot.
+     */
+    private volatile ProxyClassLoader[] snapshot = new ProxyClassLoader[0];
+    private final Object loadersLock = new Object();
+
     /**
-     * Note that all iterations over this list *must* synchronize on it first!
+     * Read-only view of the current loaders, the loaders are added with
+     * addLoader
+     *
+     * @deprecated use {@link #getLoaders()}
      */
-    protected final List<ProxyClassLoader> loaders = Collections.synchronizedList(new ArrayList<ProxyClassLoader>());
+    @Deprecated
+    protected final List<ProxyClassLoader> loaders = new AbstractList<ProxyClassLoader>() {
+        @Override
+        public ProxyClassLoader get(int index) {
+            return snapshot[index];
+        }
+
+        @Override
+        public int size() {
+            return snapshot.length;
+        }
+
+        @Override
+        public Iterator<ProxyClassLoader> iterator() {
+            return getLoaders().iterator();
+        }
+    };
 
     private final ProxyClassLoader systemLoader = new SystemLoader();
     private final ProxyClassLoader parentLoader = new ParentLoader();
@@ -51,6 +89,48 @@ public abstract class AbstractClassLoader extends ClassLoader {
     private final ProxyClassLoader threadLoader = new ThreadContextLoader();
     private final ProxyClassLoader osgiBootLoader = new OsgiBootLoader();
 
+    private final NegativeLookupCache classMisses = new NegativeLookupCache();
+    private final NegativeLookupCache resourceMisses = new NegativeLookupCache();
+
+    /**
+     * Learned routes from package names to the loader that found their
+     * classes
+     */
+    private final Map<String, ProxyClassLoader> routes = new ConcurrentHashMap<String, ProxyClassLoader>();
+    private final AtomicLong routesGeneration = new AtomicLong();
+    private volatile boolean packageRouting = Configuration.packageRouting();
+
+    private boolean stacklessExceptions = Configuration.stacklessExceptions();
+    private boolean probeClassResources = Configuration.probeClassResources();
+
+    private volatile LoadingProfile recorder;
+
+    /**
+     * In-flight asynchronous lookups, by name
+     */
+    private final ConcurrentMap<String, PendingTask<Class>> pendingClasses = new ConcurrentHashMap<String, PendingTask<Class>>();
+    private final ConcurrentMap<String, PendingTask<URL>> pendingResources = new ConcurrentHashMap<String, PendingTask<URL>>();
+    private volatile ExecutorService asyncExecutor;
+
+    /**
+     * Whether a subclass overrides loadClass, so that it cannot be asked
+     * with findClassOrNull instead
+     */
+    private static final ClassValue<Boolean> OVERRIDES_LOAD_CLASS = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            for (Class<?> c = type; c != AbstractClassLoader.class; c = c.getSuperclass()) {
+                for (Method m : c.getDeclaredMethods()) {
+                    if (m.getName().equals("loadClass") && m.getParameterTypes().length > 0
+                            && m.getParameterTypes()[0] == String.class)
+                        return true;
+                }
+            }
+
+            return false;
+        }
+    };
+
     /**
      * Build a new instance of AbstractClassLoader.java.
      *
@@ -70,20 +150,60 @@ public abstract class AbstractClassLoader extends ClassLoader {
     }
 
     protected void addDefaultLoader() {
-        synchronized (loaders) {
-            loaders.add(systemLoader);
-            loaders.add(parentLoader);
-            loaders.add(currentLoader);
-            loaders.add(threadLoader);
-            Collections.sort(loaders);
-        }
+        addLoaders(systemLoader, parentLoader, currentLoader, threadLoader);
     }
 
     public void addLoader(ProxyClassLoader loader) {
-        synchronized (loaders) {
-            loaders.add(loader);
-            Collections.sort(loaders);
+        addLoaders(loader);
+    }
+
+    private void addLoaders(ProxyClassLoader... added) {
+        synchronized (loadersLock) {
+            ProxyClassLoader[] l = Arrays.copyOf(snapshot, snapshot.length + added.length);
+            System.arraycopy(added, 0, l, snapshot.length, added.length);
+            Arrays.sort(l);
+            snapshot = l;
         }
+
+        invalidateMisses();
+        invalidateRoutes();
+    }
+
+    /**
+     * Invalidates the cached class and resource misses, this is needed when
+     * loaders are enabled, disabled or reordered
+     */
+    public void invalidateMisses() {
+        classMisses.invalidate();
+        resourceMisses.invalidate();
+    }
+
+    /**
+     * Misses are not cached while the thread context loader is enabled, as
+     * they depend on the context loader of the calling thread
+     */
+    private boolean isMissCacheable() {
+        return !threadLoader.isEnabled();
+    }
+
+    /**
+     * Removes the learned package routes, this is needed when loaders are
+     * enabled, disabled or reordered
+     */
+    public void invalidateRoutes() {
+        routesGeneration.incrementAndGet();
+        routes.clear();
+    }
+
+    /**
+     * Returns the loaders, sorted by order, as they were when last added.
+     * Changing the order of a loader takes effect when the next loader is
+     * added.
+     *
+     * @return List
+     */
+    public List<ProxyClassLoader> getLoaders() {
+        return Collections.unmodifiableList(Arrays.asList(snapshot));
     }
 
     /*
@@ -105,34 +225,273 @@ public abstract class AbstractClassLoader extends ClassLoader {
      */
     @Override
     public Class loadClass(String className, boolean resolveIt) throws ClassNotFoundException {
-        if (className == null || className.trim().equals(""))
+        if (isBlank(className))
+            return null;
+
+        Class clazz = findClassOrNull(className, resolveIt);
+
+        if (clazz == null)
+            throw classNotFound(className);
+
+        return clazz;
+    }
+
+    /**
+     * Looks up the class through the loaders like loadClass, but returns null
+     * instead of throwing ClassNotFoundException if it is not found
+     *
+     * @param className
+     * @param resolveIt
+     * @return Class or null
+     */
+    public Class findClassOrNull(String className, boolean resolveIt) {
+        if (isBlank(className))
+            return null;
+
+        if (classMisses.contains(className))
             return null;
 
+        long generation = classMisses.getGeneration();
         Class clazz = null;
+        ProxyClassLoader served = null;
 
         // Check osgi boot delegation
         if (osgiBootLoader.isEnabled()) {
             clazz = osgiBootLoader.loadClass(className, resolveIt);
+            served = osgiBootLoader;
         }
 
         if (clazz == null) {
-            synchronized (loaders) {
-                for (ProxyClassLoader l : loaders) {
-                    if (l.isEnabled()) {
+            String packageName = null;
+            ProxyClassLoader route = null;
+            long routeGeneration = 0;
+
+            // Try the loader that found the other classes of the package
+            if (packageRouting) {
+                packageName = getPackageName(className);
+                routeGeneration = routesGeneration.get();
+                route = routes.get(packageName);
+
+                if (route != null && route.isEnabled()) {
+                    clazz = route.loadClass(className, resolveIt);
+                    served = route;
+                }
+            }
+
+            if (clazz == null) {
+                for (ProxyClassLoader l : snapshot) {
+                    if (l.isEnabled() && l != route) {
                         clazz = l.loadClass(className, resolveIt);
-                        if (clazz != null)
+                        if (clazz != null) {
+                            served = l;
+                            if (packageRouting && routesGeneration.get() == routeGeneration)
+                                routes.put(packageName, l);
                             break;
+                        }
                     }
                 }
             }
         }
 
-        if (clazz == null)
-            throw new ClassNotFoundException(className);
+        if (clazz != null)
+            recordLoad(LoadingProfile.Kind.CLASS, className, served);
+        else if (isMissCacheable())
+            classMisses.add(className, generation);
 
         return clazz;
     }
 
+    /**
+     * Same as <code>name == null || name.trim().equals("")</code>, without
+     * creating a trimmed copy
+     */
+    private static boolean isBlank(String name) {
+        if (name == null)
+            return true;
+
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) > ' ')
+                return false;
+        }
+
+        return true;
+    }
+
+    private void recordLoad(LoadingProfile.Kind kind, String name, ProxyClassLoader loader) {
+        LoadingProfile profile = recorder;
+        if (profile != null)
+            profile.record(kind, name, loader, loaderIndex(snapshot, loader));
+    }
+
+    /**
+     * Creates the exception thrown when a class is not found, without a stack
+     * trace if stackless exceptions are enabled
+     *
+     * @param className
+     * @return ClassNotFoundException
+     */
+    protected ClassNotFoundException classNotFound(String className) {
+        return stacklessExceptions ? new StacklessClassNotFoundException(className)
+                : new ClassNotFoundException(className);
+    }
+
+    /**
+     * Loads the class with another class loader, returning null if it is not
+     * found. JCL loaders that do not override loadClass are asked without an
+     * exception being thrown; other loaders are first probed for the class
+     * file if probing is enabled.
+     *
+     * @param loader
+     * @param className
+     * @return Class or null
+     */
+    protected Class loadClassOrNull(ClassLoader loader, String className) {
+        if (loader == null)
+            return null;
+
+        // Subclasses that override loadClass are asked through it
+        if (loader instanceof AbstractClassLoader && !OVERRIDES_LOAD_CLASS.get(loader.getClass()))
+            return ((AbstractClassLoader) loader).findClassOrNull(className, false);
+
+        if (probeClassResources && loader.getResource(className.replace('.', '/') + ".class") == null)
+            return null;
+
+        try {
+            return loader.loadClass(className);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static String getPackageName(String className) {
+        int i = className.lastIndexOf('.');
+        return i < 0 ? "" : className.substring(0, i);
+    }
+
+    /**
+     * Starts recording the classes and resources loaded through this class
+     * loader, and the loaders that served them
+     *
+     * @return the profile being recorded
+     */
+    public LoadingProfile startRecording() {
+        LoadingProfile profile = new LoadingProfile();
+        recorder = profile;
+        return profile;
+    }
+
+    /**
+     * Stops recording
+     *
+     * @return the recorded profile, or null if nothing was being recorded
+     */
+    public LoadingProfile stopRecording() {
+        LoadingProfile profile = recorder;
+        recorder = null;
+        return profile;
+    }
+
+    public boolean isRecording() {
+        return recorder != null;
+    }
+
+    /**
+     * Loads the classes and resources of a recorded profile in the
+     * background, in recorded order and from the loaders that served them.
+     * Entries whose loader is no longer present are looked up as usual. The
+     * classes are defined but not initialised.
+     *
+     * @param profile
+     * @param executor
+     * @return Future of the timings and failures of the entries
+     */
+    public Future<PreloadResult> replay(final LoadingProfile profile, ExecutorService executor) {
+        return executor.submit(new Callable<PreloadResult>() {
+            public PreloadResult call() {
+                return replay(profile);
+            }
+        });
+    }
+
+    private static String loaderKey(ProxyClassLoader[] loaders, ProxyClassLoader loader) {
+        return LoadingProfile.loaderKey(loader.getClass().getName(), loader.getOrder(), loaderIndex(loaders, loader));
+    }
+
+    /**
+     * @return the index of the loader among the loaders of the same type and
+     *         order
+     */
+    private static int loaderIndex(ProxyClassLoader[] loaders, ProxyClassLoader loader) {
+        int index = 0;
+        for (ProxyClassLoader l : loaders) {
+            if (l == loader)
+                break;
+
+            if (l.getClass() == loader.getClass() && l.getOrder() == loader.getOrder())
+                index++;
+        }
+
+        return index;
+    }
+
+    private PreloadResult replay(LoadingProfile profile) {
+        List<LoadingProfile.Entry> entries = profile.getEntries();
+        PreloadResult result = new PreloadResult(entries.size());
+        long start = System.nanoTime();
+
+        ProxyClassLoader[] current = snapshot;
+        Map<String, ProxyClassLoader> byKey = new HashMap<String, ProxyClassLoader>();
+        for (ProxyClassLoader l : current) {
+            byKey.put(loaderKey(current, l), l);
+        }
+        byKey.put(loaderKey(current, osgiBootLoader), osgiBootLoader);
+
+        for (LoadingProfile.Entry e : entries) {
+            long t = System.nanoTime();
+            ProxyClassLoader l = byKey.get(e.getLoaderKey());
+            if (l != null && !l.isEnabled())
+                l = null;
+
+            try {
+                if (e.getKind() == LoadingProfile.Kind.CLASS) {
+                    long routeGeneration = routesGeneration.get();
+                    Class c = l == null ? null : l.loadClass(e.getName(), false);
+
+                    // Loaders changed since the replay started, the route may
+                    // be stale
+                    if (c != null && packageRouting && l != osgiBootLoader
+                            && routesGeneration.get() == routeGeneration && snapshot == current)
+                        routes.put(getPackageName(e.getName()), l);
+                    else if (c == null)
+                        c = findClassOrNull(e.getName(), false);
+
+                    if (c == null) {
+                        result.failed(e.getName(), classNotFound(e.getName()));
+                        continue;
+                    }
+                } else {
+                    InputStream is = l == null ? null : l.loadResource(e.getName());
+                    if (is == null)
+                        is = getResourceAsStream(e.getName());
+
+                    if (is == null) {
+                        result.failed(e.getName(), new ResourceNotFoundException(e.getName(), "Resource not found"));
+                        continue;
+                    }
+                    is.close();
+                }
+
+                result.loaded(e.getName(), System.nanoTime() - t);
+            } catch (Throwable ex) {
+                result.failed(e.getName(), ex);
+            }
+        }
+
+        result.completed(System.nanoTime() - start);
+
+        return result;
+    }
+
     /**
      * Overrides the getResource method to load non-class resources from other
      * sources, JarClassLoader is the only subclass in this project that loads
@@ -142,9 +501,13 @@ public abstract class AbstractClassLoader extends ClassLoader {
      */
     @Override
     public URL getResource(String name) {
-        if (name == null || name.trim().equals(""))
+        if (isBlank(name))
             return null;
 
+        if (resourceMisses.contains(name))
+            return null;
+
+        long generation = resourceMisses.getGeneration();
         URL url = null;
 
         // Check osgi boot delegation
@@ -152,25 +515,31 @@ public abstract class AbstractClassLoader extends ClassLoader {
             url = osgiBootLoader.findResource(name);
         }
 
+        ProxyClassLoader served = osgiBootLoader;
+
         if (url == null) {
-            synchronized (loaders) {
-                for (ProxyClassLoader l : loaders) {
-                    if (l.isEnabled()) {
-                        url = l.findResource(name);
-                        if (url != null)
-                            break;
-                    }
+            for (ProxyClassLoader l : snapshot) {
+                if (l.isEnabled()) {
+                    url = l.findResource(name);
+                    served = l;
+                    if (url != null)
+                        break;
                 }
             }
         }
 
+        if (url != null)
+            recordLoad(LoadingProfile.Kind.RESOURCE, name, served);
+        else if (isMissCacheable())
+            resourceMisses.add(name, generation);
+
         return url;
 
     }
 
     @Override
     public Enumeration<URL> getResources(String name) throws IOException {
-        if (name == null || name.trim().equals("")) {
+        if (isBlank(name)) {
             return Collections.emptyEnumeration();
         }
 
@@ -187,13 +556,11 @@ public abstract class AbstractClassLoader extends ClassLoader {
         }
 
         if (url == null) {
-            synchronized (loaders) {
-                for (ProxyClassLoader l : loaders) {
-                    if (l.isEnabled()) {
-                        url = l.findResource(name);
-                        if (url != null) {
-                            urlVector.add(url);
-                        }
+            for (ProxyClassLoader l : snapshot) {
+                if (l.isEnabled()) {
+                    url = l.findResource(name);
+                    if (url != null) {
+                        urlVector.add(url);
                     }
                 }
             }
@@ -211,9 +578,13 @@ public abstract class AbstractClassLoader extends ClassLoader {
      */
     @Override
     public InputStream getResourceAsStream(String name) {
-        if (name == null || name.trim().equals(""))
+        if (isBlank(name))
+            return null;
+
+        if (resourceMisses.contains(name))
             return null;
 
+        long generation = resourceMisses.getGeneration();
         InputStream is = null;
 
         // Check osgi boot delegation
@@ -221,26 +592,236 @@ public abstract class AbstractClassLoader extends ClassLoader {
             is = osgiBootLoader.loadResource(name);
         }
 
+        ProxyClassLoader served = osgiBootLoader;
+
         if (is == null) {
-            synchronized (loaders) {
-                for (ProxyClassLoader l : loaders) {
-                    if (l.isEnabled()) {
-                        is = l.loadResource(name);
-                        if (is != null)
-                            break;
-                    }
+            for (ProxyClassLoader l : snapshot) {
+                if (l.isEnabled()) {
+                    is = l.loadResource(name);
+                    served = l;
+                    if (is != null)
+                        break;
                 }
             }
         }
 
+        if (is != null)
+            recordLoad(LoadingProfile.Kind.RESOURCE, name, served);
+        else if (isMissCacheable())
+            resourceMisses.add(name, generation);
+
         return is;
 
     }
 
+    /**
+     * Loads the class in the background on the async executor. Concurrent
+     * requests for the same class share one in-flight load. A class that is
+     * already loaded is returned without a background task.
+     *
+     * @param className
+     * @return Future of the class; it fails with ClassNotFoundException if
+     *         the class is not found
+     */
+    public Future<Class> loadClassAsync(String className) {
+        return loadClassAsync(className, null);
+    }
+
+    /**
+     * Same as {@link #loadClassAsync(String)}, the callback is notified when
+     * the class is loaded or the load fails
+     *
+     * @param className
+     * @param callback
+     * @return Future of the class
+     */
+    public Future<Class> loadClassAsync(final String className, LoadCallback<? super Class> callback) {
+        Class loaded = findLoadedClass(className);
+        if (loaded != null) {
+            PendingTask<Class> done = new PendingTask<Class>(null, className, new Callable<Class>() {
+                public Class call() {
+                    return null;
+                }
+            });
+            done.set(loaded);
+            done.addCallback(callback);
+            return done;
+        }
+
+        return submitPending(pendingClasses, className, new Callable<Class>() {
+            public Class call() throws ClassNotFoundException {
+                return loadClass(className);
+            }
+        }, callback);
+    }
+
+    /**
+     * Looks up the resource in the background on the async executor.
+     * Concurrent requests for the same resource share one in-flight lookup.
+     *
+     * @param name
+     * @return Future of the resource URL, or of null if it is not found
+     */
+    public Future<URL> getResourceAsync(String name) {
+        return getResourceAsync(name, null);
+    }
+
+    /**
+     * Same as {@link #getResourceAsync(String)}, the callback is notified
+     * when the lookup completes
+     *
+     * @param name
+     * @param callback
+     * @return Future of the resource URL, or of null if it is not found
+     */
+    public Future<URL> getResourceAsync(final String name, LoadCallback<? super URL> callback) {
+        return submitPending(pendingResources, name, new Callable<URL>() {
+            public URL call() {
+                return getResource(name);
+            }
+        }, callback);
+    }
+
+    private <T> Future<T> submitPending(ConcurrentMap<String, PendingTask<T>> pending, String name,
+                                        Callable<T> callable, LoadCallback<? super T> callback) {
+        PendingTask<T> task = pending.get(name);
+        if (task == null) {
+            PendingTask<T> created = new PendingTask<T>(pending, name, callable);
+            task = pending.putIfAbsent(name, created);
+
+            if (task == null) {
+                task = created;
+
+                try {
+                    getAsyncExecutor().execute(created);
+                } catch (RejectedExecutionException e) {
+                    pending.remove(name, created);
+                    throw e;
+                }
+            }
+        }
+
+        task.addCallback(callback);
+        return task;
+    }
+
+    /**
+     * A background lookup that is removed from the in-flight requests and
+     * notifies its callbacks once it completes
+     */
+    private static class PendingTask<T> extends FutureTask<T> {
+        private static final Logger logger = LoggerFactory.getLogger(PendingTask.class);
+
+        private final ConcurrentMap<String, PendingTask<T>> pending;
+        private final String name;
+        private List<LoadCallback<? super T>> callbacks = new ArrayList<LoadCallback<? super T>>(1);
+
+        PendingTask(ConcurrentMap<String, PendingTask<T>> pending, String name, Callable<T> callable) {
+            super(callable);
+            this.pending = pending;
+            this.name = name;
+        }
+
+        @Override
+        protected void set(T v) {
+            super.set(v);
+        }
+
+        void addCallback(LoadCallback<? super T> callback) {
+            if (callback == null)
+                return;
+
+            synchronized (this) {
+                if (callbacks != null) {
+                    callbacks.add(callback);
+                    return;
+                }
+            }
+
+            notify(callback);
+        }
+
+        @Override
+        protected void done() {
+            if (pending != null)
+                pending.remove(name, this);
+
+            List<LoadCallback<? super T>> done;
+            synchronized (this) {
+                done = callbacks;
+                callbacks = null;
+            }
+
+            for (LoadCallback<? super T> callback : done) {
+                try {
+                    notify(callback);
+                } catch (RuntimeException e) {
+                    logger.warn("Callback of the lookup of " + name + " failed", e);
+                }
+            }
+        }
+
+        private void notify(LoadCallback<? super T> callback) {
+            T result;
+
+            try {
+                result = get();
+            } catch (ExecutionException e) {
+                callback.failed(name, e.getCause());
+                return;
+            } catch (CancellationException e) {
+                callback.failed(name, e);
+                return;
+            } catch (InterruptedException e) {
+                // Not thrown once the task is done
+                Thread.currentThread().interrupt();
+                callback.failed(name, e);
+                return;
+            }
+
+            callback.loaded(name, result);
+        }
+    }
+
+    /**
+     * Returns the executor of the asynchronous lookups, by default a pool of
+     * daemon threads shared by all class loaders, whose idle threads end
+     * after a minute
+     *
+     * @return ExecutorService
+     */
+    public ExecutorService getAsyncExecutor() {
+        ExecutorService executor = asyncExecutor;
+        return executor == null ? DefaultAsyncExecutor.EXECUTOR : executor;
+    }
+
+    public void setAsyncExecutor(ExecutorService asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    /**
+     * Created on first use
+     */
+    private static class DefaultAsyncExecutor {
+        static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new LoaderThreadFactory());
+    }
+
+    /**
+     * Loader that delegates to another class loader, the cached misses are
+     * invalidated when it is enabled or disabled
+     */
+    private abstract class DelegatingLoader extends ProxyClassLoader {
+        @Override
+        public void setEnabled(boolean enabled) {
+            super.setEnabled(enabled);
+            invalidateMisses();
+        }
+    }
+
     /**
      * System class loader
      */
-    class SystemLoader extends ProxyClassLoader {
+    class SystemLoader extends DelegatingLoader {
 
         private final Logger logger = LoggerFactory.getLogger(SystemLoader.class);
 
@@ -251,16 +832,12 @@ public abstract class AbstractClassLoader extends ClassLoader {
 
         @Override
         public Class loadClass(String className, boolean resolveIt) {
-            Class result;
+            Class result = loadClassOrNull(getSystemClassLoader(), className);
 
-            try {
-                result = findSystemClass(className);
-            } catch (ClassNotFoundException e) {
+            if (result == null)
                 return null;
-            }
 
-
-            logger.debug("Returning system class " + className);
+            logger.debug("Returning system class {}", className);
 
             return result;
         }
@@ -271,7 +848,7 @@ public abstract class AbstractClassLoader extends ClassLoader {
 
             if (is != null) {
 
-                logger.debug("Returning system resource " + name);
+                logger.debug("Returning system resource {}", name);
 
                 return is;
             }
@@ -285,7 +862,7 @@ public abstract class AbstractClassLoader extends ClassLoader {
 
             if (url != null) {
 
-                logger.debug("Returning system resource " + name);
+                logger.debug("Returning system resource {}", name);
 
                 return url;
             }
@@ -297,7 +874,7 @@ public abstract class AbstractClassLoader extends ClassLoader {
     /**
      * Parent class loader
      */
-    class ParentLoader extends ProxyClassLoader {
+    class ParentLoader extends DelegatingLoader {
         private final Logger logger = LoggerFactory.getLogger(ParentLoader.class);
 
         public ParentLoader() {
@@ -307,16 +884,12 @@ public abstract class AbstractClassLoader extends ClassLoader {
 
         @Override
         public Class loadClass(String className, boolean resolveIt) {
-            Class result;
+            Class result = loadClassOrNull(getParent(), className);
 
-            try {
-                result = getParent().loadClass(className);
-            } catch (ClassNotFoundException e) {
+            if (result == null)
                 return null;
-            }
-
 
-            logger.debug("Returning class " + className + " loaded with parent classloader");
+            logger.debug("Returning class {} loaded with parent classloader", className);
 
             return result;
         }
@@ -327,7 +900,7 @@ public abstract class AbstractClassLoader extends ClassLoader {
 
             if (is != null) {
 
-                logger.debug("Returning resource " + name + " loaded with parent classloader");
+                logger.debug("Returning resource {} loaded with parent classloader", name);
 
                 return is;
             }
@@ -341,7 +914,7 @@ public abstract class AbstractClassLoader extends ClassLoader {
 
             if (url != null) {
 
-                logger.debug("Returning resource " + name + " loaded with parent classloader");
+                logger.debug("Returning resource {} loaded with parent classloader", name);
 
                 return url;
             }
@@ -352,7 +925,7 @@ public abstract class AbstractClassLoader extends ClassLoader {
     /**
      * Current class loader
      */
-    class CurrentLoader extends ProxyClassLoader {
+    class CurrentLoader extends DelegatingLoader {
         private final Logger logger = LoggerFactory.getLogger(CurrentLoader.class);
 
         public CurrentLoader() {
@@ -362,16 +935,12 @@ public abstract class AbstractClassLoader extends ClassLoader {
 
         @Override
         public Class loadClass(String className, boolean resolveIt) {
-            Class result;
+            Class result = loadClassOrNull(getClass().getClassLoader(), className);
 
-            try {
-                result = getClass().getClassLoader().loadClass(className);
-            } catch (ClassNotFoundException e) {
+            if (result == null)
                 return null;
-            }
-
 
-            logger.debug("Returning class " + className + " loaded with current classloader");
+            logger.debug("Returning class {} loaded with current classloader", className);
 
             return result;
         }
@@ -382,7 +951,7 @@ public abstract class AbstractClassLoader extends ClassLoader {
 
             if (is != null) {
 
-                logger.debug("Returning resource " + name + " loaded with current classloader");
+                logger.debug("Returning resource {} loaded with current classloader", name);
 
                 return is;
             }
@@ -397,7 +966,7 @@ public abstract class AbstractClassLoader extends ClassLoader {
 
             if (url != null) {
 
-                logger.debug("Returning resource " + name + " loaded with current classloader");
+                logger.debug("Returning resource {} loaded with current classloader", name);
 
                 return url;
             }
@@ -409,7 +978,7 @@ public abstract class AbstractClassLoader extends ClassLoader {
     /**
      * Current class loader
      */
-    class ThreadContextLoader extends ProxyClassLoader {
+    class ThreadContextLoader extends DelegatingLoader {
         private final Logger logger = LoggerFactory.getLogger(ThreadContextLoader.class);
 
         public ThreadContextLoader() {
@@ -419,15 +988,12 @@ public abstract class AbstractClassLoader extends ClassLoader {
 
         @Override
         public Class loadClass(String className, boolean resolveIt) {
-            Class result;
-            try {
-                result = Thread.currentThread().getContextClassLoader().loadClass(className);
-            } catch (ClassNotFoundException e) {
-                return null;
-            }
+            Class result = loadClassOrNull(Thread.currentThread().getContextClassLoader(), className);
 
+            if (result == null)
+                return null;
 
-            logger.debug("Returning class " + className + " loaded with thread context classloader");
+            logger.debug("Returning class {} loaded with thread context classloader", className);
 
             return result;
         }
@@ -438,7 +1004,7 @@ public abstract class AbstractClassLoader extends ClassLoader {
 
             if (is != null) {
 
-                logger.debug("Returning resource " + name + " loaded with thread context classloader");
+                logger.debug("Returning resource {} loaded with thread context classloader", name);
 
                 return is;
             }
@@ -452,7 +1018,7 @@ public abstract class AbstractClassLoader extends ClassLoader {
 
             if (url != null) {
 
-                logger.debug("Returning resource " + name + " loaded with thread context classloader");
+                logger.debug("Returning resource {} loaded with thread context classloader", name);
 
                 return url;
             }
@@ -469,13 +1035,14 @@ public abstract class AbstractClassLoader extends ClassLoader {
         private final Logger logger = LoggerFactory.getLogger(OsgiBootLoader.class);
         private boolean strictLoading;
         private String[] bootDelagation;
+        private volatile WildcardMatcher bootDelegationMatcher;
 
         private static final String JAVA_PACKAGE = "java.";
 
         public OsgiBootLoader() {
             enabled = Configuration.isOsgiBootDelegationEnabled();
             strictLoading = Configuration.isOsgiBootDelegationStrict();
-            bootDelagation = Configuration.getOsgiBootDelegation();
+            setBootDelagation(Configuration.getOsgiBootDelegation());
             order = 0;
         }
 
@@ -491,7 +1058,7 @@ public abstract class AbstractClassLoader extends ClassLoader {
                 }
 
 
-                logger.debug("Class " + className + " loaded via OSGi boot delegation.");
+                logger.debug("Class {} loaded via OSGi boot delegation.", className);
             }
 
             return clazz;
@@ -509,7 +1076,7 @@ public abstract class AbstractClassLoader extends ClassLoader {
                 }
 
 
-                logger.debug("Resource " + name + " loaded via OSGi boot delegation.");
+                logger.debug("Resource {} loaded via OSGi boot delegation.", name);
             }
 
             return is;
@@ -527,7 +1094,7 @@ public abstract class AbstractClassLoader extends ClassLoader {
                 }
 
 
-                logger.debug("Resource " + name + " loaded via OSGi boot delegation.");
+                logger.debug("Resource {} loaded via OSGi boot delegation.", name);
             }
 
             return url;
@@ -543,20 +1110,7 @@ public abstract class AbstractClassLoader extends ClassLoader {
             if (resourceName.startsWith(JAVA_PACKAGE))
                 return true;
 
-            String[] bootPkgs = bootDelagation;
-
-            if (bootPkgs != null) {
-                for (String bc : bootPkgs) {
-                    Pattern pat = Pattern.compile(Utils.wildcardToRegex(bc), Pattern.CASE_INSENSITIVE);
-
-                    Matcher matcher = pat.matcher(resourceName);
-                    if (matcher.find()) {
-                        return true;
-                    }
-                }
-            }
-
-            return false;
+            return bootDelegationMatcher.matches(resourceName);
         }
 
         public boolean isStrictLoading() {
@@ -571,11 +1125,87 @@ public abstract class AbstractClassLoader extends ClassLoader {
             return bootDelagation;
         }
 
+        /**
+         * Sets the boot delegation patterns, which are compiled once here
+         *
+         * @param bootDelagation
+         */
         public void setBootDelagation(String[] bootDelagation) {
             this.bootDelagation = bootDelagation;
+            this.bootDelegationMatcher = new WildcardMatcher(bootDelagation);
         }
     }
 
+    /**
+     * @return cache of class names that were not found
+     */
+    public NegativeLookupCache getClassMissCache() {
+        return classMisses;
+    }
+
+    /**
+     * @return cache of resource names that were not found
+     */
+    public NegativeLookupCache getResourceMissCache() {
+        return resourceMisses;
+    }
+
+    public boolean isStacklessExceptions() {
+        return stacklessExceptions;
+    }
+
+    /**
+     * Throws ClassNotFoundExceptions without stack traces from loadClass
+     *
+     * @param stacklessExceptions
+     */
+    public void setStacklessExceptions(boolean stacklessExceptions) {
+        this.stacklessExceptions = stacklessExceptions;
+    }
+
+    public boolean isProbeClassResources() {
+        return probeClassResources;
+    }
+
+    /**
+     * Probes the parent, current, thread context and system class loaders
+     * for the class file before asking them to load a class, which avoids
+     * ClassNotFoundExceptions for misses. Classes that these loaders define
+     * without a class file, e.g. generated classes, are then not found
+     * through them.
+     *
+     * @param probeClassResources
+     */
+    public void setProbeClassResources(boolean probeClassResources) {
+        this.probeClassResources = probeClassResources;
+    }
+
+    public boolean isPackageRouting() {
+        return packageRouting;
+    }
+
+    /**
+     * Enables routing of class lookups to the loader that found the other
+     * classes of the same package, before walking the whole chain. This
+     * assumes that packages are not split across loaders; otherwise a class
+     * may be found by a later loader of the chain.
+     *
+     * @param packageRouting
+     */
+    public void setPackageRouting(boolean packageRouting) {
+        this.packageRouting = packageRouting;
+        invalidateRoutes();
+    }
+
+    /**
+     * Returns the learned package routes
+     *
+     * @return Map
+     */
+    public Map<String, ProxyClassLoader> getRoutes() {
+        return Collections.unmodifiableMap(routes);
+    }
+
     public ProxyClassLoader getSystemLoader() {
         return systemLoader;
     }
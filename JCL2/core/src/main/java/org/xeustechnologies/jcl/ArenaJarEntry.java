@@ -0,0 +1,59 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Jar entry whose bytes are held in an off-heap arena
+ */
+public class ArenaJarEntry extends JclJarEntry {
+
+    private final OffHeapArena arena;
+    private final long address;
+    private final int length;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    public ArenaJarEntry(OffHeapArena arena, byte[] content) {
+        this.arena = arena;
+        this.address = arena.store( content, 0, content.length );
+        this.length = content.length;
+    }
+
+    @Override
+    public byte[] getResourceBytes() {
+        return arena.read( address, length );
+    }
+
+    @Override
+    public ByteBuffer getResourceBuffer() {
+        return arena.slice( address, length );
+    }
+
+    @Override
+    public void release() {
+        if (released.compareAndSet( false, true )) {
+            arena.free( length );
+        }
+    }
+
+    public int getLength() {
+        return length;
+    }
+}
@@ -23,6 +23,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,6 +47,12 @@ public class ClasspathResources extends JarResources {
     private final transient Logger logger = LoggerFactory.getLogger(ClasspathResources.class);
     private boolean ignoreMissingResources;
 
+    /**
+     * Registered shared libraries found among the local jars, these are not
+     * loaded locally
+     */
+    private final CopyOnWriteArrayList<SharedLibraryLoader> sharedLibraries = new CopyOnWriteArrayList<SharedLibraryLoader>();
+
     public ClasspathResources() {
         super();
         ignoreMissingResources = Configuration.suppressMissingResourceException();
@@ -79,17 +91,16 @@ public class ClasspathResources extends JarResources {
 
                 logger.debug( "Loading resource: {}", entryName );
                 
-                JclJarEntry entry = new JclJarEntry();
+                String baseUrl;
                 File parentFile = resourceFile.getAbsoluteFile().getParentFile();
                 if (parentFile == null) {
                     // I don't believe this is actually possible with an absolute path. With no parent, we must be at the root of the filesystem.
-                    entry.setBaseUrl("file:/");
+                    baseUrl = "file:/";
                 } else {
-                    entry.setBaseUrl(parentFile.toURI().toString());
+                    baseUrl = parentFile.toURI().toString();
                 }
-                entry.setResourceBytes(content);
 
-                jarEntryContents.put( entryName, entry );
+                addEntry( entryName, createEntry( baseUrl, content ) );
             }
         } catch (IOException e) {
             throw new JclException( e );
@@ -139,9 +150,7 @@ public class ClasspathResources extends JarResources {
 
             logger.debug( "Loading remote resource." );
             
-            JclJarEntry entry = new JclJarEntry();
-            entry.setResourceBytes(content);
-            jarEntryContents.put( url.toString(), entry );            
+            addEntry( url.toString(), createEntry( null, content ) );
         } catch (IOException e) {
             throw new JclException( e );
         } finally {
@@ -190,9 +199,7 @@ public class ClasspathResources extends JarResources {
 
                 logger.debug( "Loading class: {}", entryName );
                 
-                JclJarEntry entry = new JclJarEntry();
-                entry.setResourceBytes(content);
-                jarEntryContents.put( entryName, entry );                
+                addEntry( entryName, createEntry( null, content ) );
             }
         } catch (IOException e) {
             throw new JclException( e );
@@ -250,12 +257,17 @@ public class ClasspathResources extends JarResources {
      * @param packName
      */
     private void loadResource(File fol, String packName) {
+        if (parallelism > 1 && fol.isDirectory()) {
+            loadFolder( fol, packName );
+            return;
+        }
+
         if (fol.isFile()) {
             if (fol.getName().toLowerCase().endsWith( ".class" )) {
                 loadClassContent( fol.getAbsolutePath(), packName );
             } else {
                 if (fol.getName().toLowerCase().endsWith( ".jar" )) {
-                    loadJar( fol.getAbsolutePath() );
+                    loadLocalJar( fol );
                 } else {
                     loadResourceContent( fol.getAbsolutePath(), packName );
                 }
@@ -283,15 +295,171 @@ public class ClasspathResources extends JarResources {
         }
     }
 
+    /**
+     * Loads a folder, reading its jars concurrently. The jars are merged into
+     * the index in the order of the folder walk, so the result, including the
+     * handling of collisions, is the same as loading them one after another.
+     * 
+     * @param fol
+     * @param packName
+     */
+    private void loadFolder(File fol, String packName) {
+        List<File> files = new ArrayList<File>();
+        List<String> packs = new ArrayList<String>();
+        collectResources( fol, packName, files, packs );
+
+        List<Callable<LoadedJar>> tasks = new ArrayList<Callable<LoadedJar>>();
+        for (File f : files) {
+            if (isJar( f )) {
+                tasks.add( new LoadJarTask( f ) );
+            }
+        }
+
+        logger.debug( "Loading {} jars of {} in parallel", tasks.size(), fol );
+
+        List<LoadedJar> jars = tasks.isEmpty() ? Collections.<LoadedJar> emptyList() : invokeAll( tasks, parallelism );
+
+        int j = 0;
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                File f = files.get( i );
+
+                if (!isJar( f )) {
+                    loadResource( f, packs.get( i ) );
+                    continue;
+                }
+
+                LoadedJar jar = jars.get( j++ );
+                if (jar.error != null) {
+                    throw jar.error;
+                } else if (jar.shared != null) {
+                    logger.debug( "Jar {} is a shared library; delegating its packages...", f );
+                    sharedLibraries.addIfAbsent( jar.shared );
+                } else {
+                    mergeEntries( jar.entries );
+                }
+            }
+        } catch (RuntimeException e) {
+            // The jars that are not merged yet are dropped
+            for (LoadedJar jar : jars.subList( j, jars.size() )) {
+                if (jar.entries != null) {
+                    releaseEntries( jar.entries );
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Collects the files of the folder in the order they are loaded
+     * sequentially
+     * 
+     * @param fol
+     * @param packName
+     * @param files
+     * @param packs
+     */
+    private void collectResources(File fol, String packName, List<File> files, List<String> packs) {
+        if (fol.isFile()) {
+            files.add( fol );
+            packs.add( packName );
+            return;
+        }
+
+        if (fol.list() != null) {
+            for (String f : fol.list()) {
+                File fl = new File( fol.getAbsolutePath() + "/" + f );
+
+                String pn = packName;
+
+                if (fl.isDirectory()) {
+
+                    if (!pn.equals( "" ))
+                        pn = pn + "/";
+
+                    pn = pn + fl.getName();
+                }
+
+                collectResources( fl, pn, files, packs );
+            }
+        }
+    }
+
+    private static boolean isJar(File f) {
+        return f.getName().toLowerCase().endsWith( ".jar" );
+    }
+
+    /**
+     * Loads the local jar, unless it is a registered shared library
+     * 
+     * @param jar
+     */
+    private void loadLocalJar(File jar) {
+        SharedLibraryLoader shared = SharedLibraryRegistry.getInstance().lookup( jar );
+
+        if (shared != null) {
+            logger.debug( "Jar {} is a shared library; delegating its packages...", jar );
+            sharedLibraries.addIfAbsent( shared );
+            return;
+        }
+
+        loadJar( jar.getAbsolutePath() );
+    }
+
+    /**
+     * Returns the registered shared libraries found among the local jars
+     * 
+     * @return List
+     */
+    public List<SharedLibraryLoader> getSharedLibraries() {
+        return Collections.unmodifiableList( sharedLibraries );
+    }
+
+    /**
+     * A jar loaded into a staging index, the shared library it matches, or
+     * the error reading it
+     */
+    private static class LoadedJar {
+        private SharedLibraryLoader shared;
+        private Map<String, JclJarEntry> entries;
+        private RuntimeException error;
+    }
+
+    private class LoadJarTask implements Callable<LoadedJar> {
+        private final File jar;
+
+        LoadJarTask(File jar) {
+            this.jar = jar;
+        }
+
+        public LoadedJar call() {
+            LoadedJar loaded = new LoadedJar();
+            loaded.shared = SharedLibraryRegistry.getInstance().lookup( jar );
+
+            if (loaded.shared == null) {
+                loaded.entries = createStagingIndex();
+                try {
+                    loadJar( jar, loaded.entries );
+                } catch (RuntimeException e) {
+                    // Thrown when the jar is merged, the other jars are released
+                    releaseEntries( loaded.entries );
+                    loaded.entries = null;
+                    loaded.error = e;
+                }
+            }
+
+            return loaded;
+        }
+    }
+
     /**
      * Removes the loaded resource
      * 
      * @param resource
      */
     public void unload(String resource) {
-        if (jarEntryContents.containsKey( resource )) {
-            logger.debug( "Removing resource {}", resource );
-            jarEntryContents.remove( resource );
+        if (removeEntry( resource )) {
+            logger.debug( "Removed resource {}", resource );
         } else {
             throw new ResourceNotFoundException( resource, "Resource not found in local ClasspathResources" );
         }
@@ -0,0 +1,82 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+
+import org.xeustechnologies.jcl.exception.JclException;
+
+/**
+ * Jar entry that keeps the raw deflated bytes of the entry and inflates them
+ * every time the content is requested
+ */
+public class CompressedJarEntry extends JclJarEntry {
+
+    private final byte[] data;
+    private final JarCentralDirectory.Entry entry;
+    private final CompressionStats stats;
+    private final InflaterPool inflaterPool;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    public CompressedJarEntry(byte[] data, JarCentralDirectory.Entry entry, CompressionStats stats,
+            InflaterPool inflaterPool) {
+        this.data = data;
+        this.entry = entry;
+        this.stats = stats;
+        this.inflaterPool = inflaterPool;
+
+        stats.entryAdded( data.length, entry.getSize() );
+    }
+
+    @Override
+    public byte[] getResourceBytes() {
+        if (entry.getMethod() == ZipEntry.STORED) {
+            return data;
+        }
+
+        long start = System.nanoTime();
+        try {
+            return inflaterPool.inflate( ByteBuffer.wrap( data ), entry );
+        } catch (IOException e) {
+            throw new JclException( e );
+        } finally {
+            stats.inflated( System.nanoTime() - start );
+        }
+    }
+
+    @Override
+    public void release() {
+        if (released.compareAndSet( false, true )) {
+            stats.entryRemoved( data.length, entry.getSize() );
+        }
+    }
+
+    public JarCentralDirectory.Entry getEntry() {
+        return entry;
+    }
+
+    /**
+     * @return size of the entry held in memory
+     */
+    public int getCompressedSize() {
+        return data.length;
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of the entries that are kept compressed in memory
+ */
+public class CompressionStats {
+    private final AtomicLong entryCount = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+    private final AtomicLong inflateCount = new AtomicLong();
+    private final AtomicLong inflateNanos = new AtomicLong();
+
+    void entryAdded(int compressedSize, int size) {
+        entryCount.incrementAndGet();
+        compressedBytes.addAndGet( compressedSize );
+        uncompressedBytes.addAndGet( size );
+    }
+
+    void entryRemoved(int compressedSize, int size) {
+        entryCount.decrementAndGet();
+        compressedBytes.addAndGet( -compressedSize );
+        uncompressedBytes.addAndGet( -size );
+    }
+
+    void inflated(long nanos) {
+        inflateCount.incrementAndGet();
+        inflateNanos.addAndGet( nanos );
+    }
+
+    /**
+     * @return number of entries kept compressed
+     */
+    public long getEntryCount() {
+        return entryCount.get();
+    }
+
+    /**
+     * @return bytes held in memory
+     */
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    /**
+     * @return bytes the entries would take when inflated
+     */
+    public long getUncompressedBytes() {
+        return uncompressedBytes.get();
+    }
+
+    /**
+     * @return uncompressed size divided by compressed size, or 1 if empty
+     */
+    public double getCompressionRatio() {
+        long compressed = compressedBytes.get();
+        return compressed == 0 ? 1 : (double) uncompressedBytes.get() / compressed;
+    }
+
+    /**
+     * @return number of times an entry has been inflated
+     */
+    public long getInflateCount() {
+        return inflateCount.get();
+    }
+
+    /**
+     * @return total time spent inflating entries, in nanoseconds
+     */
+    public long getInflateTimeNanos() {
+        return inflateNanos.get();
+    }
+
+    /**
+     * @return average time to inflate an entry, in nanoseconds
+     */
+    public long getAverageInflateTimeNanos() {
+        long count = inflateCount.get();
+        return count == 0 ? 0 : inflateNanos.get() / count;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionStats[entries=" + getEntryCount() + ", compressedBytes=" + getCompressedBytes()
+                + ", uncompressedBytes=" + getUncompressedBytes() + ", ratio=" + getCompressionRatio()
+                + ", inflateCount=" + getInflateCount() + ", inflateTimeNanos=" + getInflateTimeNanos() + "]";
+    }
+}
@@ -28,6 +28,19 @@ public class Configuration {
     private static final String JCL_SUPPRESS_COLLISION_EXCEPTION = "jcl.suppressCollisionException";
     private static final String JCL_SUPPRESS_MISSING_RESOURCE_EXCEPTION = "jcl.suppressMissingResourceException";
     private static final String AUTO_PROXY = "jcl.autoProxy";
+    private static final String JCL_LAZY_LOADING = "jcl.lazyLoading";
+    private static final String JCL_MEMORY_MAPPED = "jcl.memoryMapped";
+    private static final String JCL_OFF_HEAP = "jcl.offHeap";
+    private static final String JCL_KEEP_COMPRESSED = "jcl.keepCompressed";
+    private static final String JCL_DEDUPLICATE = "jcl.deduplicate";
+    private static final String JCL_PARALLELISM = "jcl.parallelism";
+    private static final String JCL_PARALLEL_INFLATION = "jcl.parallelInflation";
+    private static final String JCL_INDEX_CACHE = "jcl.indexCache";
+    private static final String JCL_NEGATIVE_CACHE = "jcl.negativeCache";
+    private static final String JCL_PACKAGE_ROUTING = "jcl.packageRouting";
+    private static final String JCL_STACKLESS_EXCEPTIONS = "jcl.stacklessExceptions";
+    private static final String JCL_PROBE_CLASS_RESOURCES = "jcl.probeClassResources";
+    private static final String JCL_LEAK_DETECTION = "jcl.leakDetection";
 
     /**
      * OSGi boot delegation
@@ -58,6 +71,109 @@ public class Configuration {
         return Boolean.parseBoolean( System.getProperty( AUTO_PROXY ) );
     }
 
+    public static boolean lazyLoading() {
+        if (System.getProperty( JCL_LAZY_LOADING ) == null) {
+            return false;
+        }
+
+        return Boolean.parseBoolean( System.getProperty( JCL_LAZY_LOADING ) );
+    }
+
+    public static boolean memoryMapped() {
+        if (System.getProperty( JCL_MEMORY_MAPPED ) == null) {
+            return false;
+        }
+
+        return Boolean.parseBoolean( System.getProperty( JCL_MEMORY_MAPPED ) );
+    }
+
+    public static boolean offHeap() {
+        if (System.getProperty( JCL_OFF_HEAP ) == null) {
+            return false;
+        }
+
+        return Boolean.parseBoolean( System.getProperty( JCL_OFF_HEAP ) );
+    }
+
+    public static boolean keepCompressed() {
+        if (System.getProperty( JCL_KEEP_COMPRESSED ) == null) {
+            return false;
+        }
+
+        return Boolean.parseBoolean( System.getProperty( JCL_KEEP_COMPRESSED ) );
+    }
+
+    public static boolean deduplicate() {
+        if (System.getProperty( JCL_DEDUPLICATE ) == null) {
+            return false;
+        }
+
+        return Boolean.parseBoolean( System.getProperty( JCL_DEDUPLICATE ) );
+    }
+
+    public static boolean parallelInflation() {
+        if (System.getProperty( JCL_PARALLEL_INFLATION ) == null) {
+            return false;
+        }
+
+        return Boolean.parseBoolean( System.getProperty( JCL_PARALLEL_INFLATION ) );
+    }
+
+    public static int parallelism() {
+        if (System.getProperty( JCL_PARALLELISM ) == null) {
+            return 1;
+        }
+
+        return Integer.parseInt( System.getProperty( JCL_PARALLELISM ) );
+    }
+
+    public static boolean negativeCache() {
+        if (System.getProperty( JCL_NEGATIVE_CACHE ) == null) {
+            return false;
+        }
+
+        return Boolean.parseBoolean( System.getProperty( JCL_NEGATIVE_CACHE ) );
+    }
+
+    public static boolean packageRouting() {
+        if (System.getProperty( JCL_PACKAGE_ROUTING ) == null) {
+            return false;
+        }
+
+        return Boolean.parseBoolean( System.getProperty( JCL_PACKAGE_ROUTING ) );
+    }
+
+    public static boolean stacklessExceptions() {
+        if (System.getProperty( JCL_STACKLESS_EXCEPTIONS ) == null) {
+            return false;
+        }
+
+        return Boolean.parseBoolean( System.getProperty( JCL_STACKLESS_EXCEPTIONS ) );
+    }
+
+    public static boolean probeClassResources() {
+        if (System.getProperty( JCL_PROBE_CLASS_RESOURCES ) == null) {
+            return false;
+        }
+
+        return Boolean.parseBoolean( System.getProperty( JCL_PROBE_CLASS_RESOURCES ) );
+    }
+
+    public static boolean leakDetection() {
+        if (System.getProperty( JCL_LEAK_DETECTION ) == null) {
+            return false;
+        }
+
+        return Boolean.parseBoolean( System.getProperty( JCL_LEAK_DETECTION ) );
+    }
+
+    /**
+     * @return directory of the jar index cache, or null
+     */
+    public static String indexCache() {
+        return System.getProperty( JCL_INDEX_CACHE );
+    }
+
     @SuppressWarnings("unchecked")
     public static boolean isLoaderEnabled(Class cls) {
         if (System.getProperty( cls.getName() ) == null)
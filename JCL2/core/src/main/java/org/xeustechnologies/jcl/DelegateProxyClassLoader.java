@@ -52,13 +52,7 @@ public class DelegateProxyClassLoader extends ProxyClassLoader {
 
 	@SuppressWarnings("rawtypes")
 	public Class loadClass(String className, boolean resolveIt) {
-		Class result;
-		try {
-			result = delegate.loadClass(className, resolveIt);
-		} catch (ClassNotFoundException e) {
-			return null;
-		}
-		return result;
+		return delegate.findClassOrNull(className, resolveIt);
 	}
 
 	public InputStream loadResource(String name) {
@@ -0,0 +1,387 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import java.io.InputStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xeustechnologies.jcl.exception.JclException;
+
+/**
+ * JarClassLoader whose reloadable sources are loaded in generations. Every
+ * generation is an inner JarClassLoader that owns the packages of its
+ * sources, and lookups of these packages are routed to it. Reloading or
+ * unloading a package retires its whole generation; once the classes and
+ * instances of a retired generation are no longer referenced, the JVM can
+ * unload them together with the generation's class loader. Until then the
+ * classes of a retired generation keep resolving against its own sources,
+ * which are released once its class loader has been collected.
+ * 
+ * Sources added with add() are not reloadable and are loaded by this class
+ * loader itself. Classes of a generation should be looked up with loadClass
+ * rather than Class.forName, which keeps the class reachable from this class
+ * loader.
+ */
+public class GenerationalClassLoader extends JarClassLoader {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final AtomicLong generationIds = new AtomicLong();
+
+    /**
+     * Generations by owned package, replaced as a whole when generations
+     * change so that lookups do not lock
+     */
+    private volatile Map<String, Generation> packages = Collections.emptyMap();
+    private final Object generationsLock = new Object();
+
+    private final ProxyClassLoader generationLoader = new GenerationLoader();
+
+    /**
+     * Class loaders of retired generations whose sources are released once
+     * they are collected
+     */
+    private final Set<RetiredLoader> retired = Collections.newSetFromMap( new ConcurrentHashMap<RetiredLoader, Boolean>() );
+    private final ReferenceQueue<JarClassLoader> collected = new ReferenceQueue<JarClassLoader>();
+
+    private final transient Logger logger = LoggerFactory.getLogger( GenerationalClassLoader.class );
+
+    public GenerationalClassLoader() {
+        super();
+        addLoader( generationLoader );
+    }
+
+    public GenerationalClassLoader(ClassLoader parent) {
+        super( parent );
+        addLoader( generationLoader );
+    }
+
+    /**
+     * Loads the sources in a new generation
+     * 
+     * @param sources
+     *            jar/class files, folders or URLs
+     * @return Generation
+     */
+    public Generation addGeneration(Object... sources) {
+        Generation generation = createGeneration( Arrays.asList( sources ) );
+
+        synchronized (generationsLock) {
+            for (String p : generation.packages) {
+                if (packages.containsKey( p )) {
+                    generation.retire().release();
+                    throw new JclException( "Package " + p.replace( '/', '.' ) + " already loaded by generation "
+                            + packages.get( p ).getId() );
+                }
+            }
+
+            publish( null, generation );
+        }
+
+        return generation;
+    }
+
+    /**
+     * Reloads the sources of the generation that owns the package in a new
+     * generation, and retires the old generation
+     * 
+     * @param packageName
+     * @return the new Generation
+     */
+    public Generation reload(String packageName) {
+        synchronized (generationsLock) {
+            Generation old = getOwner( packageName );
+            Generation generation = createGeneration( old.sources );
+
+            for (String p : generation.packages) {
+                Generation owner = packages.get( p );
+                if (owner != null && owner != old) {
+                    generation.retire().release();
+                    throw new JclException( "Package " + p.replace( '/', '.' ) + " already loaded by generation "
+                            + owner.getId() );
+                }
+            }
+
+            publish( old, generation );
+            retire( old );
+
+            return generation;
+        }
+    }
+
+    /**
+     * Retires the generation that owns the package, its classes are no longer
+     * found through this class loader
+     * 
+     * @param packageName
+     */
+    public void unload(String packageName) {
+        synchronized (generationsLock) {
+            Generation old = getOwner( packageName );
+            publish( old, null );
+            retire( old );
+        }
+    }
+
+    /**
+     * @param packageName
+     * @return the generation that owns the package, or null
+     */
+    public Generation getGeneration(String packageName) {
+        return packages.get( packageName.replace( '.', '/' ) );
+    }
+
+    /**
+     * @return the current generations
+     */
+    public List<Generation> getGenerations() {
+        return Collections.unmodifiableList( new ArrayList<Generation>( new LinkedHashSet<Generation>(
+                packages.values() ) ) );
+    }
+
+    /**
+     * Releases the sources of the retired generations whose class loaders
+     * have been collected
+     * 
+     * @return number of retired generations that are not collected yet
+     */
+    public int getRetiredCount() {
+        releaseCollected();
+        return retired.size();
+    }
+
+    private Generation getOwner(String packageName) {
+        Generation owner = getGeneration( packageName );
+        if (owner == null) {
+            throw new JclException( "Package " + packageName + " is not loaded by any generation" );
+        }
+
+        return owner;
+    }
+
+    private Generation createGeneration(List<Object> sources) {
+        JarClassLoader loader = new JarClassLoader( this );
+
+        for (Object source : sources) {
+            if (!( source instanceof String ) && !( source instanceof URL )) {
+                throw new JclException( "Only file and URL sources can be reloaded" );
+            }
+            loader.add( source );
+        }
+
+        return new Generation( generationIds.incrementAndGet(), loader, sources );
+    }
+
+    /**
+     * Drops the generation's class loader, which the classes of the generation
+     * still in use keep resolving against until it is collected
+     * 
+     * @param generation
+     */
+    private void retire(Generation generation) {
+        JarClassLoader loader = generation.retire();
+        if (loader == null) {
+            return;
+        }
+
+        retired.add( new RetiredLoader( loader, collected ) );
+        if (Configuration.leakDetection()) {
+            LeakDetector.getInstance().track( loader );
+        }
+
+        releaseCollected();
+    }
+
+    private void releaseCollected() {
+        RetiredLoader r;
+        while (( r = (RetiredLoader) collected.poll() ) != null) {
+            if (retired.remove( r )) {
+                r.resources.release();
+                logger.debug( "Released the sources of a collected generation" );
+            }
+        }
+    }
+
+    /**
+     * Replaces the packages of the old generation with those of the new one
+     * 
+     * @param old
+     * @param generation
+     */
+    private void publish(Generation old, Generation generation) {
+        Map<String, Generation> p = new HashMap<String, Generation>( packages );
+
+        if (old != null) {
+            p.keySet().removeAll( old.packages );
+        }
+
+        if (generation != null) {
+            for (String name : generation.packages) {
+                p.put( name, generation );
+            }
+        }
+
+        packages = p;
+
+        invalidateMisses();
+        invalidateRoutes();
+
+        logger.debug( "Generation {} replaced by {}", old == null ? null : old.getId(),
+                generation == null ? null : generation.getId() );
+    }
+
+    /**
+     * Sources loaded together in an inner class loader
+     */
+    public static class Generation {
+        private final long id;
+        private final List<Object> sources;
+        private final Set<String> packages;
+        private volatile JarClassLoader loader;
+
+        Generation(long id, JarClassLoader loader, List<Object> sources) {
+            this.id = id;
+            this.loader = loader;
+            this.sources = Collections.unmodifiableList( new ArrayList<Object>( sources ) );
+
+            Set<String> p = new HashSet<String>();
+            for (String name : loader.getClasspathResources().getResourceNames()) {
+                if (name.startsWith( "META-INF/" )) {
+                    continue;
+                }
+
+                int i = name.lastIndexOf( '/' );
+                p.add( i < 0 ? "" : name.substring( 0, i ) );
+            }
+            packages = Collections.unmodifiableSet( p );
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public List<Object> getSources() {
+            return sources;
+        }
+
+        /**
+         * @return the owned packages, with '/' as separator
+         */
+        public Set<String> getPackages() {
+            return packages;
+        }
+
+        /**
+         * @return the inner class loader, or null once retired
+         */
+        public JarClassLoader getClassLoader() {
+            return loader;
+        }
+
+        public boolean isRetired() {
+            return loader == null;
+        }
+
+        /**
+         * Drops the reference to the inner class loader
+         * 
+         * @return the inner class loader, or null if already retired
+         */
+        JarClassLoader retire() {
+            JarClassLoader l = loader;
+            loader = null;
+
+            return l;
+        }
+    }
+
+    /**
+     * Weak reference to the class loader of a retired generation, with the
+     * sources to release once it is collected
+     */
+    private static class RetiredLoader extends WeakReference<JarClassLoader> {
+        private final ClasspathResources resources;
+
+        RetiredLoader(JarClassLoader loader, ReferenceQueue<JarClassLoader> queue) {
+            super( loader, queue );
+            this.resources = loader.getClasspathResources();
+        }
+    }
+
+    /**
+     * Routes the lookups of the owned packages to the local loader of their
+     * generation
+     */
+    class GenerationLoader extends ProxyClassLoader {
+
+        public GenerationLoader() {
+            order = 5;
+        }
+
+        @Override
+        public Class loadClass(String className, boolean resolveIt) {
+            int i = className.lastIndexOf( '.' );
+            JarClassLoader loader = getLoader( i < 0 ? "" : className.substring( 0, i ).replace( '.', '/' ) );
+
+            return loader == null ? null : loader.getLocalLoader().loadClass( className, resolveIt );
+        }
+
+        @Override
+        public InputStream loadResource(String name) {
+            JarClassLoader loader = getLoader( getResourcePackage( name ) );
+
+            return loader == null ? null : loader.getLocalLoader().loadResource( name );
+        }
+
+        @Override
+        public URL findResource(String name) {
+            JarClassLoader loader = getLoader( getResourcePackage( name ) );
+
+            return loader == null ? null : loader.getLocalLoader().findResource( name );
+        }
+
+        private JarClassLoader getLoader(String packageName) {
+            Generation generation = packages.get( packageName );
+
+            return generation == null ? null : generation.getClassLoader();
+        }
+
+        private String getResourcePackage(String name) {
+            int i = name.lastIndexOf( '/' );
+
+            return i < 0 ? "" : name.substring( 0, i );
+        }
+    }
+}
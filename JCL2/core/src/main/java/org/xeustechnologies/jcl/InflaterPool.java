@@ -0,0 +1,85 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Inflater;
+
+/**
+ * Bounded pool of raw (nowrap) Inflaters. Inflaters hold native memory and
+ * are expensive to create, so they are reused instead of being created for
+ * every inflated entry. When the pool is empty a new Inflater is created, and
+ * Inflaters returned to a full pool are ended.
+ */
+public class InflaterPool {
+    private static final InflaterPool instance = new InflaterPool( Runtime.getRuntime().availableProcessors() * 2 );
+
+    private final BlockingQueue<Inflater> pool;
+
+    public InflaterPool(int size) {
+        pool = new ArrayBlockingQueue<Inflater>( size );
+    }
+
+    /**
+     * Returns the process wide pool
+     * 
+     * @return InflaterPool
+     */
+    public static InflaterPool getInstance() {
+        return instance;
+    }
+
+    /**
+     * Inflates the raw deflated data of the entry with a pooled Inflater
+     * 
+     * @param data
+     * @param entry
+     * @return byte[]
+     * @throws IOException
+     */
+    public byte[] inflate(ByteBuffer data, JarCentralDirectory.Entry entry) throws IOException {
+        Inflater inflater = borrow();
+        try {
+            return JarCentralDirectory.inflate( inflater, data, entry );
+        } finally {
+            release( inflater );
+        }
+    }
+
+    /**
+     * @return number of idle Inflaters in the pool
+     */
+    public int getIdleCount() {
+        return pool.size();
+    }
+
+    private Inflater borrow() {
+        Inflater inflater = pool.poll();
+        return inflater != null ? inflater : new Inflater( true );
+    }
+
+    private void release(Inflater inflater) {
+        inflater.reset();
+        if (!pool.offer( inflater )) {
+            inflater.end();
+        }
+    }
+}
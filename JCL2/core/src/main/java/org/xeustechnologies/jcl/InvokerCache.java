@@ -0,0 +1,301 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.xeustechnologies.jcl.exception.JclException;
+
+/**
+ * Resolved constructors and static factory methods of classes, as method
+ * handles that take the arguments as an Object[] and return an Object. The
+ * handles are cached per class and signature; the cache of a class goes away
+ * with the class, so it does not keep class loaders alive. Signatures with
+ * argument types that are not visible from the loader of the class are not
+ * cached, the cache of e.g. a JDK class would otherwise keep them alive.
+ * 
+ * Constructors and methods are resolved by exact parameter types first,
+ * then by the most specific one that accepts the argument types, including
+ * subclasses, nulls and primitive wrappers. If no such one is more specific
+ * than all the others, the match is ambiguous and a JclException is thrown.
+ */
+class InvokerCache {
+    private static final int MAX_SIGNATURES = 64;
+
+    private static final ClassValue<ConcurrentMap<Signature, MethodHandle>> invokers = new ClassValue<ConcurrentMap<Signature, MethodHandle>>() {
+        @Override
+        protected ConcurrentMap<Signature, MethodHandle> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<Signature, MethodHandle>();
+        }
+    };
+
+    private InvokerCache() {
+    }
+
+    /**
+     * Returns the invoker of the constructor of the class that takes the
+     * given types
+     * 
+     * @param c
+     * @param types
+     * @return MethodHandle of type (Object[])Object
+     */
+    static MethodHandle constructor(Class<?> c, Class<?>[] types) {
+        return invoker( c, null, types );
+    }
+
+    /**
+     * Returns the invoker of the static method of the class that takes the
+     * given types
+     * 
+     * @param c
+     * @param methodName
+     * @param types
+     * @return MethodHandle of type (Object[])Object
+     */
+    static MethodHandle factoryMethod(Class<?> c, String methodName, Class<?>[] types) {
+        return invoker( c, methodName, types );
+    }
+
+    private static MethodHandle invoker(Class<?> c, String methodName, Class<?>[] types) {
+        ConcurrentMap<Signature, MethodHandle> cache = invokers.get( c );
+        Signature signature = new Signature( methodName, types );
+
+        MethodHandle invoker = cache.get( signature );
+        if (invoker == null) {
+            invoker = methodName == null ? resolveConstructor( c, types ) : resolveMethod( c, methodName, types );
+            invoker = invoker.asType( invoker.type().generic() ).asSpreader( Object[].class, types.length );
+
+            if (cache.size() < MAX_SIGNATURES && isVisible( c, types )) {
+                // The key keeps its own copy of the types
+                MethodHandle existing = cache.putIfAbsent( new Signature( methodName, types.clone() ), invoker );
+                if (existing != null) {
+                    invoker = existing;
+                }
+            }
+        }
+
+        return invoker;
+    }
+
+    /**
+     * Checks that the types are loaded by the loader of the class or one of
+     * its parents, so caching them with the class keeps no other loader alive
+     * 
+     * @param c
+     * @param types
+     * @return true if all types are visible from the class
+     */
+    private static boolean isVisible(Class<?> c, Class<?>[] types) {
+        ClassLoader loader = c.getClassLoader();
+
+        for (Class<?> type : types) {
+            if (type == null) {
+                continue;
+            }
+
+            ClassLoader typeLoader = type.getClassLoader();
+            if (typeLoader == null || typeLoader == loader) {
+                continue;
+            }
+
+            ClassLoader parent = loader;
+            while (parent != null && parent != typeLoader) {
+                parent = parent.getParent();
+            }
+
+            if (parent == null) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @param c
+     * @param types
+     * @return the direct handle of the constructor
+     */
+    static MethodHandle resolveConstructor(Class<?> c, Class<?>[] types) {
+        Constructor<?> constructor = null;
+
+        try {
+            constructor = c.getConstructor( types );
+        } catch (NoSuchMethodException e) {
+            Constructor<?>[] candidates = c.getConstructors();
+            Class<?>[][] params = new Class<?>[candidates.length][];
+            for (int i = 0; i < candidates.length; i++) {
+                params[i] = candidates[i].getParameterTypes();
+            }
+
+            int match = bestMatch( params, types );
+            if (match < 0) {
+                throw new JclException( e );
+            }
+            constructor = candidates[match];
+        }
+
+        try {
+            return MethodHandles.publicLookup().unreflectConstructor( constructor );
+        } catch (IllegalAccessException e) {
+            throw new JclException( e );
+        }
+    }
+
+    /**
+     * @param c
+     * @param methodName
+     * @param types
+     * @return the direct handle of the static method
+     */
+    static MethodHandle resolveMethod(Class<?> c, String methodName, Class<?>[] types) {
+        Method method = null;
+
+        try {
+            method = c.getMethod( methodName, types );
+        } catch (NoSuchMethodException e) {
+            List<Method> candidates = new ArrayList<Method>();
+            for (Method m : c.getMethods()) {
+                if (m.getName().equals( methodName ) && Modifier.isStatic( m.getModifiers() )) {
+                    candidates.add( m );
+                }
+            }
+
+            Class<?>[][] params = new Class<?>[candidates.size()][];
+            for (int i = 0; i < params.length; i++) {
+                params[i] = candidates.get( i ).getParameterTypes();
+            }
+
+            int match = bestMatch( params, types );
+            if (match < 0) {
+                throw new JclException( e );
+            }
+            method = candidates.get( match );
+        }
+
+        if (!Modifier.isStatic( method.getModifiers() )) {
+            throw new JclException( "Factory method " + method + " is not static" );
+        }
+
+        try {
+            return MethodHandles.publicLookup().unreflect( method );
+        } catch (IllegalAccessException e) {
+            throw new JclException( e );
+        }
+    }
+
+    /**
+     * Returns the index of the most specific candidate whose parameters
+     * accept the argument types, a null type stands for a null argument
+     * 
+     * @param candidates
+     * @param types
+     * @return index of the candidate or -1
+     * @throws JclException
+     *             if no applicable candidate is more specific than all the
+     *             others
+     */
+    private static int bestMatch(Class<?>[][] candidates, Class<?>[] types) {
+        boolean[] applicable = new boolean[candidates.length];
+        int best = -1;
+
+        for (int i = 0; i < candidates.length; i++) {
+            Class<?>[] params = candidates[i];
+            if (params.length != types.length) {
+                continue;
+            }
+
+            applicable[i] = true;
+            for (int j = 0; j < params.length && applicable[i]; j++) {
+                applicable[i] = types[j] == null ? !params[j].isPrimitive() : box( params[j] ).isAssignableFrom(
+                        types[j] );
+            }
+
+            if (applicable[i] && ( best < 0 || isMoreSpecific( params, candidates[best] ) )) {
+                best = i;
+            }
+        }
+
+        for (int i = 0; i < candidates.length; i++) {
+            if (applicable[i] && i != best
+                    && ( !isMoreSpecific( candidates[best], candidates[i] ) || isMoreSpecific( candidates[i],
+                            candidates[best] ) )) {
+                throw new JclException( "Ambiguous match for argument types " + Arrays.toString( types ) + ": "
+                        + Arrays.toString( candidates[best] ) + " and " + Arrays.toString( candidates[i] ) );
+            }
+        }
+
+        return best;
+    }
+
+    private static boolean isMoreSpecific(Class<?>[] params, Class<?>[] other) {
+        for (int i = 0; i < params.length; i++) {
+            if (!box( other[i] ).isAssignableFrom( box( params[i] ) )) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    static Class<?> box(Class<?> type) {
+        return type.isPrimitive() ? MethodType.methodType( type ).wrap().returnType() : type;
+    }
+
+    /**
+     * Method name, or null for constructors, and parameter types
+     */
+    private static class Signature {
+        private final String methodName;
+        private final Class<?>[] types;
+        private final int hash;
+
+        Signature(String methodName, Class<?>[] types) {
+            this.methodName = methodName;
+            this.types = types;
+            this.hash = 31 * ( methodName == null ? 0 : methodName.hashCode() ) + Arrays.hashCode( types );
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!( obj instanceof Signature )) {
+                return false;
+            }
+
+            Signature s = (Signature) obj;
+            return hash == s.hash && ( methodName == null ? s.methodName == null : methodName.equals( s.methodName ) )
+                    && Arrays.equals( types, s.types );
+        }
+    }
+}
@@ -0,0 +1,465 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the zip central directory of a jar, so that the jar can be indexed
+ * without inflating its entries. Zip64 archives are not supported and are
+ * reported with an IOException, so that the caller can fall back to
+ * sequential loading.
+ */
+public final class JarCentralDirectory {
+
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int END_HEADER_SIG = 0x06054b50;
+
+    private static final int LOCAL_HEADER_LENGTH = 30;
+    private static final int CENTRAL_HEADER_LENGTH = 46;
+    private static final int END_HEADER_LENGTH = 22;
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+    private static final int INFLATE_CHUNK_SIZE = 8192;
+
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private JarCentralDirectory() {
+    }
+
+    /**
+     * Index information of a single jar entry
+     */
+    public static final class Entry {
+        private final String name;
+        private final int method;
+        private final long crc;
+        private final int compressedSize;
+        private final int size;
+        private final long localHeaderOffset;
+
+        public Entry(String name, int method, long crc, int compressedSize, int size, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public int getCompressedSize() {
+            return compressedSize;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public long getLocalHeaderOffset() {
+            return localHeaderOffset;
+        }
+    }
+
+    /**
+     * Reads the central directory of a jar file, only the tail of the file
+     * and the directory itself are read
+     *
+     * @param channel
+     * @return List of file entries
+     * @throws IOException
+     */
+    public static List<Entry> read(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        int tailLength = (int) Math.min( fileSize, END_HEADER_LENGTH + MAX_COMMENT_LENGTH );
+
+        ByteBuffer tail = readFully( channel, fileSize - tailLength, tailLength );
+        int end = findEndHeader( tail );
+
+        long cdOffset = tail.getInt( end + 16 ) & 0xFFFFFFFFL;
+        long cdSize = tail.getInt( end + 12 ) & 0xFFFFFFFFL;
+        int count = tail.getShort( end + 10 ) & 0xFFFF;
+
+        checkZip64( cdOffset, cdSize, count );
+        if (cdOffset + cdSize > fileSize) {
+            throw new IOException( "Invalid central directory offset" );
+        }
+
+        return readEntries( readFully( channel, cdOffset, (int) cdSize ), count );
+    }
+
+    /**
+     * Reads the central directory of a jar held entirely in the buffer
+     *
+     * @param zip
+     * @return List of file entries
+     * @throws IOException
+     */
+    public static List<Entry> read(ByteBuffer zip) throws IOException {
+        ByteBuffer buf = zip.duplicate().order( ByteOrder.LITTLE_ENDIAN );
+        int end = findEndHeader( buf );
+
+        long cdOffset = buf.getInt( end + 16 ) & 0xFFFFFFFFL;
+        long cdSize = buf.getInt( end + 12 ) & 0xFFFFFFFFL;
+        int count = buf.getShort( end + 10 ) & 0xFFFF;
+
+        checkZip64( cdOffset, cdSize, count );
+        if (cdOffset + cdSize > buf.limit()) {
+            throw new IOException( "Invalid central directory offset" );
+        }
+
+        buf.position( (int) cdOffset );
+        buf.limit( (int) ( cdOffset + cdSize ) );
+
+        return readEntries( buf.slice().order( ByteOrder.LITTLE_ENDIAN ), count );
+    }
+
+    /**
+     * Returns the offset of the entry data, the local header must be read
+     * because its name and extra fields may differ from the central directory
+     *
+     * @param channel
+     * @param entry
+     * @return long
+     * @throws IOException
+     */
+    public static long dataOffset(FileChannel channel, Entry entry) throws IOException {
+        ByteBuffer header = readFully( channel, entry.getLocalHeaderOffset(), LOCAL_HEADER_LENGTH );
+        return entry.getLocalHeaderOffset() + localHeaderLength( header, 0 );
+    }
+
+    /**
+     * Returns the offset of the entry data in a jar held entirely in the
+     * buffer
+     *
+     * @param zip
+     * @param entry
+     * @return int
+     * @throws IOException
+     */
+    public static int dataOffset(ByteBuffer zip, Entry entry) throws IOException {
+        ByteBuffer buf = zip.duplicate().order( ByteOrder.LITTLE_ENDIAN );
+        int offset = (int) entry.getLocalHeaderOffset();
+
+        if (offset + LOCAL_HEADER_LENGTH > buf.limit()) {
+            throw new IOException( "Invalid local header offset for " + entry.getName() );
+        }
+
+        return offset + localHeaderLength( buf, offset );
+    }
+
+    /**
+     * Returns a slice of the buffer with the raw, possibly deflated, data of
+     * the entry
+     *
+     * @param zip
+     * @param entry
+     * @return ByteBuffer
+     * @throws IOException
+     */
+    public static ByteBuffer entryData(ByteBuffer zip, Entry entry) throws IOException {
+        int offset = dataOffset( zip, entry );
+        int length = entry.getMethod() == ZipEntry.STORED ? entry.getSize() : entry.getCompressedSize();
+
+        if (offset + length > zip.limit()) {
+            throw new IOException( "Invalid data offset for " + entry.getName() );
+        }
+
+        ByteBuffer buf = zip.duplicate();
+        buf.limit( offset + length );
+        buf.position( offset );
+
+        return buf.slice();
+    }
+
+    /**
+     * Reads and, if needed, inflates the entry from the jar file
+     *
+     * @param channel
+     * @param entry
+     * @return byte[]
+     * @throws IOException
+     */
+    public static byte[] readEntry(FileChannel channel, Entry entry) throws IOException {
+        long offset = dataOffset( channel, entry );
+
+        if (entry.getMethod() == ZipEntry.STORED) {
+            byte[] content = readFully( channel, offset, entry.getSize() ).array();
+            checkCrc( content, entry );
+            return content;
+        }
+
+        return inflate( readFully( channel, offset, entry.getCompressedSize() ), entry );
+    }
+
+    /**
+     * Inflates the raw deflated data of an entry
+     *
+     * @param data
+     * @param entry
+     * @return byte[]
+     * @throws IOException
+     */
+    public static byte[] inflate(ByteBuffer data, Entry entry) throws IOException {
+        Inflater inflater = new Inflater( true );
+        try {
+            return inflate( inflater, data, entry );
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Inflates the raw deflated data of an entry using the given inflater.
+     * Heap buffers are passed to the inflater as they are, other buffers are
+     * copied in small chunks.
+     *
+     * @param inflater
+     * @param data
+     * @param entry
+     * @return byte[]
+     * @throws IOException
+     */
+    static byte[] inflate(Inflater inflater, ByteBuffer data, Entry entry) throws IOException {
+        ByteBuffer in = data.duplicate();
+        byte[] chunk = null;
+        byte[] out = new byte[entry.getSize()];
+        int n = 0;
+        boolean dummy = false;
+
+        try {
+            while (n < out.length) {
+                if (inflater.needsInput()) {
+                    if (in.hasRemaining()) {
+                        if (in.hasArray()) {
+                            inflater.setInput( in.array(), in.arrayOffset() + in.position(), in.remaining() );
+                            in.position( in.limit() );
+                        } else {
+                            if (chunk == null) {
+                                chunk = new byte[Math.min( in.remaining(), INFLATE_CHUNK_SIZE )];
+                            }
+                            int len = Math.min( in.remaining(), chunk.length );
+                            in.get( chunk, 0, len );
+                            inflater.setInput( chunk, 0, len );
+                        }
+                    } else if (!dummy) {
+                        // Inflater in nowrap mode may need an extra dummy byte
+                        // at the end
+                        inflater.setInput( new byte[1] );
+                        dummy = true;
+                    } else {
+                        break;
+                    }
+                }
+
+                int r = inflater.inflate( out, n, out.length - n );
+                if (r == 0 && ( inflater.finished() || inflater.needsDictionary() )) {
+                    break;
+                }
+                n += r;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException( "Invalid deflated data for " + entry.getName(), e );
+        }
+
+        if (n != out.length) {
+            throw new IOException( "Unexpected end of deflated data for " + entry.getName() );
+        }
+
+        checkCrc( out, entry );
+        return out;
+    }
+
+    /**
+     * Checks the content of the entry against the CRC-32 of the central
+     * directory
+     *
+     * @param content
+     * @param entry
+     * @throws ZipException
+     *             if the CRC-32 does not match
+     */
+    static void checkCrc(byte[] content, Entry entry) throws ZipException {
+        CRC32 crc = new CRC32();
+        crc.update( content, 0, content.length );
+        checkCrc( crc.getValue(), entry );
+    }
+
+    /**
+     * Checks the content of the entry, e.g. a slice of a memory mapped jar,
+     * against the CRC-32 of the central directory. Buffers without an array
+     * are read in small chunks.
+     *
+     * @param data
+     * @param entry
+     * @throws ZipException
+     *             if the CRC-32 does not match
+     */
+    static void checkCrc(ByteBuffer data, Entry entry) throws ZipException {
+        ByteBuffer in = data.duplicate();
+        CRC32 crc = new CRC32();
+
+        if (in.hasArray()) {
+            crc.update( in.array(), in.arrayOffset() + in.position(), in.remaining() );
+        } else {
+            byte[] chunk = new byte[Math.min( in.remaining(), INFLATE_CHUNK_SIZE )];
+            while (in.hasRemaining()) {
+                int len = Math.min( in.remaining(), chunk.length );
+                in.get( chunk, 0, len );
+                crc.update( chunk, 0, len );
+            }
+        }
+
+        checkCrc( crc.getValue(), entry );
+    }
+
+    static void checkCrc(long crc, Entry entry) throws ZipException {
+        if (crc != entry.getCrc()) {
+            throw new ZipException( "Invalid CRC-32 of " + entry.getName() + ": " + Long.toHexString( crc )
+                    + ", expected " + Long.toHexString( entry.getCrc() ) );
+        }
+    }
+
+    /**
+     * Reads the given region of the file into a heap buffer
+     *
+     * @param channel
+     * @param position
+     * @param length
+     * @return ByteBuffer
+     * @throws IOException
+     */
+    static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate( length );
+        readFully( channel, position, buf );
+        buf.flip();
+        return buf.order( ByteOrder.LITTLE_ENDIAN );
+    }
+
+    private static void readFully(FileChannel channel, long position, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            int r = channel.read( buf, position + buf.position() );
+            if (r < 0) {
+                throw new EOFException( "Unexpected end of jar file" );
+            }
+        }
+    }
+
+    private static int localHeaderLength(ByteBuffer buf, int offset) throws IOException {
+        if (buf.getInt( offset ) != LOCAL_HEADER_SIG) {
+            throw new IOException( "Invalid local header signature" );
+        }
+
+        int nameLength = buf.getShort( offset + 26 ) & 0xFFFF;
+        int extraLength = buf.getShort( offset + 28 ) & 0xFFFF;
+
+        return LOCAL_HEADER_LENGTH + nameLength + extraLength;
+    }
+
+    private static int findEndHeader(ByteBuffer buf) throws IOException {
+        for (int i = buf.limit() - END_HEADER_LENGTH; i >= 0 && i >= buf.limit() - END_HEADER_LENGTH
+                - MAX_COMMENT_LENGTH; i--) {
+            if (buf.getInt( i ) == END_HEADER_SIG) {
+                return i;
+            }
+        }
+
+        throw new IOException( "End of central directory not found" );
+    }
+
+    private static void checkZip64(long cdOffset, long cdSize, int count) throws IOException {
+        if (cdOffset == 0xFFFFFFFFL || cdSize == 0xFFFFFFFFL || count == 0xFFFF) {
+            throw new IOException( "Zip64 archives are not supported" );
+        }
+    }
+
+    private static List<Entry> readEntries(ByteBuffer cd, int count) throws IOException {
+        List<Entry> entries = new ArrayList<Entry>( count );
+        int pos = 0;
+
+        for (int i = 0; i < count; i++) {
+            if (pos + CENTRAL_HEADER_LENGTH > cd.limit() || cd.getInt( pos ) != CENTRAL_HEADER_SIG) {
+                throw new IOException( "Invalid central directory header" );
+            }
+
+            int method = cd.getShort( pos + 10 ) & 0xFFFF;
+            long crc = cd.getInt( pos + 16 ) & 0xFFFFFFFFL;
+            long compressedSize = cd.getInt( pos + 20 ) & 0xFFFFFFFFL;
+            long size = cd.getInt( pos + 24 ) & 0xFFFFFFFFL;
+            int nameLength = cd.getShort( pos + 28 ) & 0xFFFF;
+            int extraLength = cd.getShort( pos + 30 ) & 0xFFFF;
+            int commentLength = cd.getShort( pos + 32 ) & 0xFFFF;
+            long localHeaderOffset = cd.getInt( pos + 42 ) & 0xFFFFFFFFL;
+
+            if (pos + CENTRAL_HEADER_LENGTH + nameLength > cd.limit()) {
+                throw new IOException( "Invalid central directory header" );
+            }
+
+            byte[] nameBytes = new byte[nameLength];
+            for (int j = 0; j < nameLength; j++) {
+                nameBytes[j] = cd.get( pos + CENTRAL_HEADER_LENGTH + j );
+            }
+            String name = new String( nameBytes, UTF8 );
+
+            pos += CENTRAL_HEADER_LENGTH + nameLength + extraLength + commentLength;
+
+            if (name.endsWith( "/" ) || name.equalsIgnoreCase( JarFile.MANIFEST_NAME )) {
+                // Directories and the manifest are skipped by JarInputStream
+                // as well
+                continue;
+            }
+
+            if (compressedSize >= Integer.MAX_VALUE || size >= Integer.MAX_VALUE
+                    || localHeaderOffset == 0xFFFFFFFFL) {
+                throw new IOException( "Zip64 archives are not supported" );
+            }
+
+            if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+                throw new IOException( "Unsupported compression method " + method + " for " + name );
+            }
+
+            entries.add( new Entry( name, method, crc, (int) compressedSize, (int) size, localHeaderOffset ) );
+        }
+
+        return entries;
+    }
+}
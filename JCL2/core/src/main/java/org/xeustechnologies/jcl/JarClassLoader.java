@@ -17,19 +17,30 @@
 
 package org.xeustechnologies.jcl;
 
-import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.jar.JarEntry;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xeustechnologies.jcl.exception.JclException;
 import org.xeustechnologies.jcl.exception.ResourceNotFoundException;
+import org.xeustechnologies.jcl.utils.Utils;
 
 /**
  * Reads the class bytes from jar files and other resources using
@@ -40,6 +51,11 @@ import org.xeustechnologies.jcl.exception.ResourceNotFoundException;
  */
 @SuppressWarnings("unchecked")
 public class JarClassLoader extends AbstractClassLoader {
+
+    static {
+        registerAsParallelCapable();
+    }
+
     /**
      * Class cache
      */
@@ -47,20 +63,36 @@ public class JarClassLoader extends AbstractClassLoader {
 
     protected final ClasspathResources classpathResources;
     private char classNameReplacementChar;
+
+    private static final String CLASS_SUFFIX = ".class";
+    private static final int MAX_ENTRY_NAMES = 10000;
+
+    /**
+     * Cached entry names of class names, replaced when the class name
+     * replacement char changes
+     */
+    private volatile Map<String, String> entryNames = new ConcurrentHashMap<String, String>();
     private final ProxyClassLoader localLoader = new LocalLoader();
 
+    /**
+     * Set if a subclass reads the class content itself, by overriding
+     * loadClassBytes or loadClassBuffer
+     */
+    private final boolean customClassBytes = overrides( "loadClassBytes" );
+    private final boolean customClassSource = customClassBytes || overrides( "loadClassBuffer" );
+
     private final transient Logger logger = LoggerFactory.getLogger( JarClassLoader.class );
 
     public JarClassLoader() {
         classpathResources = new ClasspathResources();
-        classes = Collections.synchronizedMap( new HashMap<String, Class>() );
+        classes = new ConcurrentHashMap<String, Class>();
         initialize();
     }
 
     public JarClassLoader(final ClassLoader parent) {
         super(parent);
         classpathResources = new ClasspathResources();
-        classes = Collections.synchronizedMap( new HashMap<String, Class>() );
+        classes = new ConcurrentHashMap<String, Class>();
         initialize();
     }
 
@@ -138,6 +170,8 @@ public class JarClassLoader extends AbstractClassLoader {
      */
     public void add(String resourceName) {
         classpathResources.loadResource( resourceName );
+        addSharedLibraries();
+        sourcesChanged();
     }
 
     /**
@@ -147,6 +181,7 @@ public class JarClassLoader extends AbstractClassLoader {
      */
     public void add(InputStream jarStream) {
         classpathResources.loadJar( null, jarStream, false );
+        sourcesChanged();
     }
 
     /**
@@ -156,6 +191,27 @@ public class JarClassLoader extends AbstractClassLoader {
      */
     public void add(URL url) {
         classpathResources.loadResource( url );
+        addSharedLibraries();
+        sourcesChanged();
+    }
+
+    /**
+     * Invalidates the lookup caches after sources are added
+     */
+    private void sourcesChanged() {
+        invalidateMisses();
+        invalidateRoutes();
+    }
+
+    /**
+     * Delegates to the shared libraries found among the added sources
+     */
+    private void addSharedLibraries() {
+        for (SharedLibraryLoader shared : classpathResources.getSharedLibraries()) {
+            if (!getLoaders().contains( shared )) {
+                addLoader( shared );
+            }
+        }
     }
 
     /**
@@ -171,6 +227,40 @@ public class JarClassLoader extends AbstractClassLoader {
         return classpathResources.getResource( className );
     }
 
+    /**
+     * Reads the class content as a buffer, classes in memory mapped jars are
+     * returned without being copied to the heap. If a subclass overrides
+     * loadClassBytes, the content it returns is used instead.
+     * 
+     * @param className
+     * @return ByteBuffer
+     */
+    protected ByteBuffer loadClassBuffer(String className) {
+        if (customClassBytes) {
+            byte[] classBytes = loadClassBytes( className );
+            return classBytes == null ? null : ByteBuffer.wrap( classBytes );
+        }
+
+        return classpathResources.getResourceBuffer( formatClassName( className ) );
+    }
+
+    /**
+     * @param methodName
+     * @return true if a subclass declares the method taking a class name
+     */
+    private boolean overrides(String methodName) {
+        for (Class<?> c = getClass(); c != JarClassLoader.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod( methodName, String.class );
+                return true;
+            } catch (NoSuchMethodException e) {
+                // not declared by this class
+            }
+        }
+
+        return false;
+    }
+
     /**
      * Attempts to unload class, it only unloads the locally loaded classes by
      * JCL
@@ -197,25 +287,163 @@ public class JarClassLoader extends AbstractClassLoader {
                         + "[Possible reason: Class belongs to the system]", e );
             }
         }
+
+        invalidateMisses();
+    }
+
+    /**
+     * Loads the given classes in the background, e.g. to warm up the class
+     * loader before it is used. Each name is either a class name or a pattern
+     * such as <code>com.example.*</code> that is matched against all the
+     * locally loaded classes. The classes are defined by the local loader, one
+     * task per class on the given executor.
+     *
+     * @param classNames
+     * @param resolve
+     *            resolve the classes once defined
+     * @param initialize
+     *            run the static initialisers of the classes
+     * @param executor
+     * @return Future of the timings and failures of the classes
+     */
+    public Future<PreloadResult> preload(Collection<String> classNames, boolean resolve, boolean initialize,
+            ExecutorService executor) {
+        Set<String> selected = new LinkedHashSet<String>();
+        List<Pattern> patterns = new ArrayList<Pattern>();
+
+        for (String name : classNames) {
+            if (name.indexOf( '*' ) >= 0 || name.indexOf( '?' ) >= 0) {
+                patterns.add( Pattern.compile( Utils.wildcardToRegex( name ) ) );
+            } else {
+                selected.add( name );
+            }
+        }
+
+        if (!patterns.isEmpty()) {
+            for (String className : toClassNames( classpathResources.getResourceNames() )) {
+                for (Pattern p : patterns) {
+                    if (p.matcher( className ).matches()) {
+                        selected.add( className );
+                        break;
+                    }
+                }
+            }
+        }
+
+        return preloadClasses( selected, resolve, initialize, executor );
     }
 
     /**
+     * Loads all the classes of a jar that was added to this class loader in
+     * the background
+     *
+     * @param source
+     *            path or URL of the jar
+     * @param resolve
+     * @param initialize
+     * @param executor
+     * @return Future of the timings and failures of the classes
+     */
+    public Future<PreloadResult> preloadSource(String source, boolean resolve, boolean initialize,
+            ExecutorService executor) {
+        File file = new File( source );
+        String baseUrl = "jar:" + ( file.exists() ? file.toURI().toString() : source ) + "!/";
+
+        return preloadClasses( toClassNames( classpathResources.getResourceNames( baseUrl ) ), resolve, initialize,
+                executor );
+    }
+
+    /**
+     * Loads all the locally loaded classes in the background
+     *
+     * @param resolve
+     * @param initialize
+     * @param executor
+     * @return Future of the timings and failures of the classes
+     */
+    public Future<PreloadResult> preloadAll(boolean resolve, boolean initialize, ExecutorService executor) {
+        return preloadClasses( toClassNames( classpathResources.getResourceNames() ), resolve, initialize, executor );
+    }
+
+    private Future<PreloadResult> preloadClasses(Collection<String> classNames, boolean resolve, boolean initialize,
+            ExecutorService executor) {
+        logger.debug( "Preloading {} classes", classNames.size() );
+
+        return new PreloadTask( this, new ArrayList<String>( classNames ), resolve, initialize ).start( executor );
+    }
+
+    /**
+     * Maps the class resources back to class names, skipping the entries that
+     * cannot be defined, such as module-info and versioned classes. Only the
+     * path separators are mapped back; with a custom replacement char, the
+     * entries are named as they are, as a replaced char cannot be told apart
+     * from one in the class name. Entries that formatClassName does not map
+     * a class name to, e.g. paths with a custom replacement char, are skipped,
+     * they cannot be loaded either.
+     *
+     * @param resourceNames
+     * @return Set
+     */
+    private Set<String> toClassNames(Collection<String> resourceNames) {
+        Set<String> classNames = new TreeSet<String>();
+
+        for (String name : resourceNames) {
+            if (!name.endsWith( CLASS_SUFFIX ) || name.startsWith( "META-INF/" ) || name.indexOf( '-' ) >= 0) {
+                continue;
+            }
+
+            String className = name.substring( 0, name.length() - CLASS_SUFFIX.length() );
+            if (classNameReplacementChar == '\u0000') {
+                className = className.replace( '/', '.' );
+            }
+
+            if (className.indexOf( '/' ) < 0 && formatClassName( className ).equals( name )) {
+                classNames.add( className );
+            }
+        }
+
+        return classNames;
+    }
+
+    /**
+     * Maps the class name to the name of its entry, e.g. <code>a.b.C</code> to
+     * <code>a/b/C.class</code>. The mappings are cached, so that repeated
+     * lookups of the same class do not create new names; only the names of
+     * classes in the loaded resources are cached.
+     * 
      * @param className
      * @return String
      */
     protected String formatClassName(String className) {
-        className = className.replace( '/', '~' );
+        // Read the cache before the replacement char, see
+        // setClassNameReplacementChar
+        Map<String, String> names = entryNames;
+        String entryName = names.get( className );
+        if (entryName != null) {
+            return entryName;
+        }
 
-        if (classNameReplacementChar == '\u0000') {
-            // '/' is used to map the package to the path
-            className = className.replace( '.', '/' ) + ".class";
-        } else {
-            // Replace '.' with custom char, such as '_'
-            className = className.replace( '.', classNameReplacementChar ) + ".class";
+        // '/' is used to map the package to the path, unless a custom char,
+        // such as '_', is set
+        char separator = classNameReplacementChar == '\u0000' ? '/' : classNameReplacementChar;
+
+        int length = className.length();
+        char[] chars = new char[length + CLASS_SUFFIX.length()];
+        for (int i = 0; i < length; i++) {
+            char c = className.charAt( i );
+            chars[i] = c == '.' ? separator : c;
+        }
+        CLASS_SUFFIX.getChars( 0, CLASS_SUFFIX.length(), chars, length );
+
+        entryName = new String( chars );
+
+        // Only local classes are cached, so that lookups of other classes,
+        // e.g. system classes, do not fill up the cache
+        if (names.size() < MAX_ENTRY_NAMES && classpathResources.getEntry( entryName ) != null) {
+            names.put( className, entryName );
         }
 
-        className = className.replace( '~', '/' );
-        return className;
+        return entryName;
     }
 
     /**
@@ -234,7 +462,7 @@ public class JarClassLoader extends AbstractClassLoader {
         @Override
         public Class loadClass(String className, boolean resolveIt) {
             Class result = null;
-            byte[] classBytes;
+            ByteBuffer classBuffer;
 
             result = classes.get( className );
             if (result != null) {
@@ -242,41 +470,62 @@ public class JarClassLoader extends AbstractClassLoader {
                 return result;
             }
 
-            classBytes = loadClassBytes( className );
-            if (classBytes == null) {
-                return null;
-            }
-
-            result = defineClass( className, classBytes, 0, classBytes.length );
-
-            if (result == null) {
+            // Classes that are not local, e.g. system classes, are not locked,
+            // unless a subclass reads the class content itself
+            if (!customClassSource && classpathResources.getEntry( formatClassName( className ) ) == null) {
                 return null;
             }
 
-            /*
-             * Preserve package name.
-             */
-            if (result.getPackage() == null) {
-                int lastDotIndex = className.lastIndexOf( '.' );
-                String packageName = (lastDotIndex >= 0) ? className.substring( 0, lastDotIndex) : "";
-                definePackage( packageName, null, null, null, null, null, null, null );
+            // Classes with different names are defined concurrently, a class
+            // is defined only once
+            synchronized (getClassLoadingLock( className )) {
+                result = classes.get( className );
+                if (result != null) {
+                    logger.debug( "Returning local loaded class [{}] from cache", className );
+                    return result;
+                }
+
+                classBuffer = loadClassBuffer( className );
+                if (classBuffer == null) {
+                    return null;
+                }
+
+                result = defineClass( className, classBuffer, (ProtectionDomain) null );
+
+                if (result == null) {
+                    return null;
+                }
+
+                /*
+                 * Preserve package name.
+                 */
+                if (result.getPackage() == null) {
+                    int lastDotIndex = className.lastIndexOf( '.' );
+                    String packageName = (lastDotIndex >= 0) ? className.substring( 0, lastDotIndex) : "";
+                    try {
+                        definePackage( packageName, null, null, null, null, null, null, null );
+                    } catch (IllegalArgumentException e) {
+                        // Defined concurrently for another class of the package
+                    }
+                }
+
+                if (resolveIt)
+                    resolveClass( result );
+
+                classes.put( className, result );
             }
 
-            if (resolveIt)
-                resolveClass( result );
-
-            classes.put( className, result );
             logger.debug( "Return new local loaded class {}", className );
             return result;
         }
 
         @Override
         public InputStream loadResource(String name) {
-            byte[] arr = classpathResources.getResource( name );
-            if (arr != null) {
+            InputStream is = classpathResources.getResourceAsStream( name );
+            if (is != null) {
                 logger.debug( "Returning newly loaded resource {}", name );
 
-                return new ByteArrayInputStream( arr );
+                return is;
             }
 
             return null;
@@ -295,12 +544,27 @@ public class JarClassLoader extends AbstractClassLoader {
         }
     }
 
+    /**
+     * Releases the loaded classes and resources, including any off-heap
+     * storage. The class loader must not be used afterwards; if leak detection
+     * is enabled it is tracked until it is garbage collected.
+     */
+    public void release() {
+        classes.clear();
+        classpathResources.release();
+
+        if (Configuration.leakDetection()) {
+            LeakDetector.getInstance().track( this );
+        }
+    }
+
     public char getClassNameReplacementChar() {
         return classNameReplacementChar;
     }
 
     public void setClassNameReplacementChar(char classNameReplacementChar) {
         this.classNameReplacementChar = classNameReplacementChar;
+        entryNames = new ConcurrentHashMap<String, String>();
     }
 
     /**
@@ -312,6 +576,16 @@ public class JarClassLoader extends AbstractClassLoader {
         return classpathResources.getResources();
     }
 
+    /**
+     * Returns the ClasspathResources, e.g. to configure how the added sources
+     * are loaded
+     * 
+     * @return ClasspathResources
+     */
+    public ClasspathResources getClasspathResources() {
+        return classpathResources;
+    }
+
     /**
      * @return Local JCL ProxyClassLoader
      */
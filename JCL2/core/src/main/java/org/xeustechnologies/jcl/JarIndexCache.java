@@ -0,0 +1,183 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xeustechnologies.jcl.exception.JclException;
+import org.xeustechnologies.jcl.utils.Utils;
+
+/**
+ * On-disk cache of jar indexes. For every jar a compact index file with the
+ * central directory entries and the base URL is kept in the cache directory.
+ * The file is keyed by the jar path and is only used while the size and the
+ * modification time of the jar are unchanged, it is then read with a single
+ * sequential read instead of scanning the jar.
+ */
+public class JarIndexCache {
+    private static final int MAGIC = 0x4A434C49; // JCLI
+    private static final int VERSION = 1;
+
+    private final File directory;
+
+    private final transient Logger logger = LoggerFactory.getLogger( JarIndexCache.class );
+
+    public JarIndexCache(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Reads the cached index of the jar
+     * 
+     * @param jar
+     * @param baseUrl
+     * @return List of entries, or null if there is no valid index for the jar
+     */
+    public List<JarCentralDirectory.Entry> read(File jar, String baseUrl) {
+        File index = indexFile( jar );
+        if (!index.isFile()) {
+            return null;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream( new ByteArrayInputStream( Files.readAllBytes( index.toPath() ) ) );
+
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals( jar.getAbsolutePath() )
+                    || in.readLong() != jar.length() || in.readLong() != jar.lastModified()
+                    || !in.readUTF().equals( baseUrl )) {
+                logger.debug( "Index of jar {} is out of date", jar );
+                return null;
+            }
+
+            int count = in.readInt();
+            List<JarCentralDirectory.Entry> entries = new ArrayList<JarCentralDirectory.Entry>( count );
+            for (int i = 0; i < count; i++) {
+                entries.add( new JarCentralDirectory.Entry( in.readUTF(), in.readUnsignedShort(),
+                        in.readInt() & 0xFFFFFFFFL, in.readInt(), in.readInt(), in.readLong() ) );
+            }
+
+            logger.debug( "Read cached index of jar {}", jar );
+
+            return entries;
+        } catch (IOException e) {
+            logger.debug( "Unable to read index of jar {}: {}", jar, e.getMessage() );
+            return null;
+        }
+    }
+
+    /**
+     * Writes the index of the jar to the cache. Failures are logged and
+     * otherwise ignored.
+     * 
+     * @param jar
+     * @param baseUrl
+     * @param entries
+     */
+    public void write(File jar, String baseUrl, List<JarCentralDirectory.Entry> entries) {
+        File index = indexFile( jar );
+        File tmp = null;
+        DataOutputStream out = null;
+
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException( "Unable to create " + directory );
+            }
+
+            tmp = File.createTempFile( index.getName(), ".tmp", directory );
+            out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ) );
+
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeUTF( jar.getAbsolutePath() );
+            out.writeLong( jar.length() );
+            out.writeLong( jar.lastModified() );
+            out.writeUTF( baseUrl );
+
+            out.writeInt( entries.size() );
+            for (JarCentralDirectory.Entry e : entries) {
+                out.writeUTF( e.getName() );
+                out.writeShort( e.getMethod() );
+                out.writeInt( (int) e.getCrc() );
+                out.writeInt( e.getCompressedSize() );
+                out.writeInt( e.getSize() );
+                out.writeLong( e.getLocalHeaderOffset() );
+            }
+
+            out.close();
+            out = null;
+
+            // Replace the index as a whole, so that readers never see a
+            // partially written file
+            if (!tmp.renameTo( index ) && !( index.delete() && tmp.renameTo( index ) )) {
+                throw new IOException( "Unable to replace " + index );
+            }
+            tmp = null;
+
+            logger.debug( "Wrote index of jar {} to {}", jar, index );
+        } catch (IOException e) {
+            logger.debug( "Unable to write index of jar {}: {}", jar, e.getMessage() );
+        } finally {
+            if (out != null)
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the index file of the jar, which is named after the digest of
+     * the jar path
+     * 
+     * @param jar
+     * @return File
+     */
+    protected File indexFile(File jar) {
+        try {
+            MessageDigest md = MessageDigest.getInstance( "SHA-256" );
+            byte[] digest = md.digest( jar.getAbsolutePath().getBytes( "UTF-8" ) );
+            return new File( directory, Utils.toHexString( digest ) + ".idx" );
+        } catch (NoSuchAlgorithmException e) {
+            throw new JclException( e );
+        } catch (UnsupportedEncodingException e) {
+            throw new JclException( e );
+        }
+    }
+}
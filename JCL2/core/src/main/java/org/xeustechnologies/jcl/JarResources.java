@@ -18,6 +18,7 @@
 package org.xeustechnologies.jcl;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -25,9 +26,22 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarInputStream;
@@ -37,7 +51,9 @@ import org.slf4j.LoggerFactory;
 import org.xeustechnologies.jcl.exception.JclException;
 
 /**
- * JarResources reads jar files and loads the class content/bytes in a HashMap
+ * JarResources reads jar files and loads the class content/bytes in a
+ * concurrent index. Lookups do not lock and the entries of a jar become
+ * visible all at once.
  * 
  * @author Kamran Zafar
  * 
@@ -46,6 +62,46 @@ public class JarResources {
 
     protected Map<String, JclJarEntry> jarEntryContents;
     protected boolean collisionAllowed;
+    protected boolean lazyLoading;
+    protected boolean memoryMapped;
+    protected boolean offHeap;
+    protected boolean keepCompressed;
+    protected boolean deduplicate;
+    protected boolean parallelInflation;
+    protected int parallelism;
+
+    /**
+     * On-disk cache of the indexes of lazily loaded jars
+     */
+    private JarIndexCache indexCache;
+
+    /**
+     * Executor for parallel loading, a temporary pool is used if not set
+     */
+    private ExecutorService executor;
+
+    private final CompressionStats compressionStats = new CompressionStats();
+
+    /**
+     * Off-heap storage for entries read from streams, created on first use
+     */
+    private OffHeapArena arena;
+
+    /**
+     * Serializes changes to the index, lookups do not lock
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * Jar files that are read on demand
+     */
+    private final List<LocalJarFile> jarFiles = Collections.synchronizedList( new ArrayList<LocalJarFile>() );
+
+    /**
+     * Set on threads running a parallel loading task, nested parallel loads
+     * run inline on these threads
+     */
+    private static final ThreadLocal<Boolean> LOADING_TASK = new ThreadLocal<Boolean>();
 
     private final transient Logger logger = LoggerFactory.getLogger( JarResources.class );
 
@@ -53,8 +109,19 @@ public class JarResources {
      * Default constructor
      */
     public JarResources() {
-        jarEntryContents = new HashMap<String, JclJarEntry>();
+        jarEntryContents = new ConcurrentHashMap<String, JclJarEntry>();
         collisionAllowed = Configuration.suppressCollisionException();
+        lazyLoading = Configuration.lazyLoading();
+        memoryMapped = Configuration.memoryMapped();
+        offHeap = Configuration.offHeap();
+        keepCompressed = Configuration.keepCompressed();
+        deduplicate = Configuration.deduplicate();
+        parallelInflation = Configuration.parallelInflation();
+        parallelism = Configuration.parallelism();
+
+        if (Configuration.indexCache() != null) {
+            indexCache = new JarIndexCache( new File( Configuration.indexCache() ) );
+        }
     }
 
     /**
@@ -63,7 +130,7 @@ public class JarResources {
      */
     public URL getResourceURL(String name) {
 
-      JclJarEntry entry = jarEntryContents.get(name);
+      JclJarEntry entry = getEntry(name);
         if (entry != null) {
           if (entry.getBaseUrl() == null) {
             throw new JclException( "non-URL accessible resource" );
@@ -83,7 +150,7 @@ public class JarResources {
      * @return byte[]
      */
     public byte[] getResource(String name) {
-      JclJarEntry entry = jarEntryContents.get(name);
+      JclJarEntry entry = getEntry(name);
       if (entry != null) {
         return entry.getResourceBytes();
       }
@@ -92,6 +159,81 @@ public class JarResources {
       }
     }
 
+    /**
+     * Returns the resource content as a buffer; entries of memory mapped jars
+     * are returned without being copied to the heap
+     * 
+     * @param name
+     * @return ByteBuffer
+     */
+    public ByteBuffer getResourceBuffer(String name) {
+        JclJarEntry entry = getEntry( name );
+        if (entry != null) {
+            return entry.getResourceBuffer();
+        }
+
+        return null;
+    }
+
+    /**
+     * @param name
+     * @return InputStream
+     */
+    public InputStream getResourceAsStream(String name) {
+        JclJarEntry entry = getEntry( name );
+        if (entry != null) {
+            return entry.getResourceStream();
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the entry if it is visible, i.e. it is not part of a jar that is
+     * still being added
+     * 
+     * @param name
+     * @return JclJarEntry
+     */
+    protected JclJarEntry getEntry(String name) {
+        JclJarEntry entry = jarEntryContents.get( name );
+        return entry != null && entry.isVisible() ? entry : null;
+    }
+
+    /**
+     * Returns the names of all jar resources
+     * 
+     * @return Set
+     */
+    public Set<String> getResourceNames() {
+        Set<String> names = new HashSet<String>( jarEntryContents.size() );
+        for (Map.Entry<String, JclJarEntry> entry : jarEntryContents.entrySet()) {
+            if (entry.getValue().isVisible()) {
+                names.add( entry.getKey() );
+            }
+        }
+
+        return Collections.unmodifiableSet( names );
+    }
+
+    /**
+     * Returns the names of the resources loaded from the given base url, e.g.
+     * <code>jar:file:/path/lib.jar!/</code>
+     *
+     * @param baseUrl
+     * @return Set
+     */
+    public Set<String> getResourceNames(String baseUrl) {
+        Set<String> names = new HashSet<String>();
+        for (Map.Entry<String, JclJarEntry> entry : jarEntryContents.entrySet()) {
+            if (entry.getValue().isVisible() && baseUrl.equals( entry.getValue().getBaseUrl() )) {
+                names.add( entry.getKey() );
+            }
+        }
+
+        return Collections.unmodifiableSet( names );
+    }
+
     /**
      * Returns an immutable Map of all jar resources
      * 
@@ -102,7 +244,9 @@ public class JarResources {
       Map<String, byte[]> resourcesAsBytes = new HashMap<String, byte[]>(jarEntryContents.size());
       
       for (Map.Entry<String, JclJarEntry> entry : jarEntryContents.entrySet()) {
-        resourcesAsBytes.put(entry.getKey(), entry.getValue().getResourceBytes());
+        if (entry.getValue().isVisible()) {
+          resourcesAsBytes.put(entry.getKey(), entry.getValue().getResourceBytes());
+        }
       }
 
       return resourcesAsBytes;
@@ -114,14 +258,44 @@ public class JarResources {
      * @param jarFile
      */
     public void loadJar(String jarFile) {
-        logger.debug( "Loading jar: {}", jarFile );
+        Map<String, JclJarEntry> entries = createStagingIndex();
+        try {
+            loadJar( new File( jarFile ), entries );
+        } catch (RuntimeException e) {
+            releaseEntries( entries );
+            throw e;
+        }
+        mergeEntries( entries );
+    }
+
+    /**
+     * Reads the jar file into the given index, which is either the index of
+     * this JarResources or a staging index that is merged later
+     * 
+     * @param file
+     * @param target
+     */
+    protected void loadJar(File file, Map<String, JclJarEntry> target) {
+        logger.debug( "Loading jar: {}", file );
+
+        String baseUrl = "jar:" + file.toURI().toString() + "!/";
+
+        if (memoryMapped && loadMappedJar( baseUrl, file, target )) {
+            return;
+        }
+
+        if (lazyLoading && loadJarIndex( baseUrl, file, target )) {
+            return;
+        }
+
+        if (parallelInflation && loadJarInParallel( baseUrl, file, target )) {
+            return;
+        }
 
         FileInputStream fis = null;
         try {
-            File file = new File( jarFile );
-            String baseUrl = "jar:" + file.toURI().toString() + "!/";
             fis = new FileInputStream( file );
-            loadJar(baseUrl, fis);
+            loadJar( baseUrl, fis, true, target );
         } catch (IOException e) {
             throw new JclException( e );
         } finally {
@@ -134,6 +308,411 @@ public class JarResources {
         }
     }
 
+    /**
+     * Indexes the jar file from its central directory, the entries are read
+     * and inflated when they are first requested. If an index cache is set,
+     * the index of an unchanged jar is read from the cache instead.
+     * 
+     * @param argBaseUrl
+     * @param file
+     * @param target
+     * @return false if the central directory could not be read
+     */
+    protected boolean loadJarIndex(String argBaseUrl, File file, Map<String, JclJarEntry> target) {
+        LocalJarFile jar = new LocalJarFile( file );
+        List<JarCentralDirectory.Entry> entries = indexCache == null ? null : indexCache.read( file, argBaseUrl );
+
+        if (entries == null) {
+            try {
+                entries = jar.readCentralDirectory();
+            } catch (IOException e) {
+                jar.close();
+                logger.debug( "Unable to index jar {}, loading all entries: {}", file, e.getMessage() );
+                return false;
+            }
+
+            if (indexCache != null) {
+                indexCache.write( file, argBaseUrl, entries );
+            }
+        }
+
+        jarFiles.add( jar );
+
+        for (JarCentralDirectory.Entry e : entries) {
+            JclJarEntry entry = new LazyJarEntry( jar, e );
+            entry.setBaseUrl( argBaseUrl );
+            addIndexedEntry( target, e.getName(), entry );
+        }
+
+        logger.debug( "Indexed {} entries of jar {}", entries.size(), file );
+
+        return true;
+    }
+
+    /**
+     * Memory maps the jar file and indexes it from its central directory. The
+     * entries are served from the mapping and are not held on the heap.
+     * 
+     * @param argBaseUrl
+     * @param file
+     * @param target
+     * @return false if the jar could not be mapped or indexed
+     */
+    protected boolean loadMappedJar(String argBaseUrl, File file, Map<String, JclJarEntry> target) {
+        MappedJarFile jar;
+        List<JarCentralDirectory.Entry> entries;
+
+        try {
+            jar = new MappedJarFile( file );
+            entries = jar.readCentralDirectory();
+        } catch (IOException e) {
+            logger.debug( "Unable to map jar {}, loading all entries: {}", file, e.getMessage() );
+            return false;
+        }
+
+        for (JarCentralDirectory.Entry e : entries) {
+            JclJarEntry entry = new MappedJarEntry( jar, e );
+            entry.setBaseUrl( argBaseUrl );
+            addIndexedEntry( target, e.getName(), entry );
+        }
+
+        logger.debug( "Mapped {} entries of jar {}", entries.size(), file );
+
+        return true;
+    }
+
+    /**
+     * Loads all entries of the jar file, inflating them concurrently. The jar
+     * is memory mapped and its entries, listed by the central directory, are
+     * split into chunks of about the same compressed size that are inflated
+     * in parallel. The entries are then indexed in central directory order.
+     * 
+     * @param argBaseUrl
+     * @param file
+     * @param target
+     * @return false if the jar could not be mapped or indexed
+     */
+    protected boolean loadJarInParallel(final String argBaseUrl, File file, Map<String, JclJarEntry> target) {
+        final MappedJarFile jar;
+        final List<JarCentralDirectory.Entry> entries;
+
+        try {
+            jar = new MappedJarFile( file );
+            entries = jar.readCentralDirectory();
+        } catch (IOException e) {
+            logger.debug( "Unable to map jar {}, loading all entries: {}", file, e.getMessage() );
+            return false;
+        }
+
+        int threads = parallelism > 1 ? parallelism : Runtime.getRuntime().availableProcessors();
+
+        long total = 0;
+        for (JarCentralDirectory.Entry e : entries) {
+            total += e.getCompressedSize();
+        }
+        long chunkSize = Math.max( 1, total / ( threads * 4 ) );
+
+        // Chunks that are inflated, released if another chunk fails
+        final List<JclJarEntry[]> inflated = Collections.synchronizedList( new ArrayList<JclJarEntry[]>() );
+
+        List<Callable<JclJarEntry[]>> tasks = new ArrayList<Callable<JclJarEntry[]>>();
+        int start = 0;
+        long size = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            size += entries.get( i ).getCompressedSize();
+            if (size >= chunkSize || i == entries.size() - 1) {
+                final List<JarCentralDirectory.Entry> chunk = entries.subList( start, i + 1 );
+                tasks.add( new Callable<JclJarEntry[]>() {
+                    public JclJarEntry[] call() throws IOException {
+                        JclJarEntry[] result = inflateEntries( argBaseUrl, jar, chunk );
+                        inflated.add( result );
+                        return result;
+                    }
+                } );
+                start = i + 1;
+                size = 0;
+            }
+        }
+
+        List<JclJarEntry[]> chunks;
+        try {
+            chunks = invokeAll( tasks, threads );
+        } catch (RuntimeException e) {
+            synchronized (inflated) {
+                releaseChunks( inflated, 0 );
+            }
+            throw e;
+        }
+
+        int i = 0;
+        try {
+            for (JclJarEntry[] chunk : chunks) {
+                for (JclJarEntry entry : chunk) {
+                    addIndexedEntry( target, entries.get( i ).getName(), entry );
+                    i++;
+                }
+            }
+        } catch (RuntimeException e) {
+            // The failed entry is released when it is rejected, the indexed
+            // ones go with the target
+            releaseChunks( chunks, i + 1 );
+            throw e;
+        }
+
+        logger.debug( "Inflated {} entries of jar {} in {} chunks", entries.size(), file, tasks.size() );
+
+        return true;
+    }
+
+    private JclJarEntry[] inflateEntries(String argBaseUrl, MappedJarFile jar,
+            List<JarCentralDirectory.Entry> entries) throws IOException {
+        JclJarEntry[] result = new JclJarEntry[entries.size()];
+        InflaterPool inflaters = InflaterPool.getInstance();
+        int i = 0;
+
+        try {
+            for (; i < result.length; i++) {
+                JarCentralDirectory.Entry e = entries.get( i );
+                ByteBuffer data = jar.entryData( e );
+
+                byte[] content;
+                if (e.getMethod() == JarEntry.STORED) {
+                    content = new byte[data.remaining()];
+                    data.get( content );
+                    JarCentralDirectory.checkCrc( content, e );
+                } else {
+                    content = inflaters.inflate( data, e );
+                }
+
+                result[i] = createEntry( argBaseUrl, content );
+            }
+        } finally {
+            if (i < result.length) {
+                releaseChunks( Collections.singletonList( result ), 0 );
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Releases the entries of the chunks, skipping the given number of
+     * entries
+     * 
+     * @param chunks
+     * @param from
+     */
+    private static void releaseChunks(List<JclJarEntry[]> chunks, int from) {
+        int n = 0;
+        for (JclJarEntry[] chunk : chunks) {
+            for (JclJarEntry entry : chunk) {
+                if (n++ >= from && entry != null) {
+                    entry.release();
+                }
+            }
+        }
+    }
+
+    private void addIndexedEntry(Map<String, JclJarEntry> target, String name, JclJarEntry entry) {
+        if (target.containsKey( name )) {
+            entry.release();
+
+            if (!collisionAllowed)
+                throw new JclException( "Class/Resource " + name + " already loaded" );
+            else {
+                logger.debug( "Class/Resource {} already loaded; ignoring entry...", name );
+                return;
+            }
+        }
+
+        target.put( name, entry );
+    }
+
+    /**
+     * Adds the entries of a staging index to the index of this JarResources as
+     * one batch: lookups see either none or all of the entries. Colliding
+     * entries are ignored, or if collisions are not allowed, none of the
+     * entries are added.
+     * 
+     * @param entries
+     */
+    protected void mergeEntries(Map<String, JclJarEntry> entries) {
+        JclJarEntry.Batch batch = new JclJarEntry.Batch();
+        List<String> added = new ArrayList<String>( entries.size() );
+        Iterator<Map.Entry<String, JclJarEntry>> it = entries.entrySet().iterator();
+
+        synchronized (writeLock) {
+            try {
+                while (it.hasNext()) {
+                    Map.Entry<String, JclJarEntry> e = it.next();
+                    if (jarEntryContents.containsKey( e.getKey() )) {
+                        e.getValue().release();
+
+                        if (!collisionAllowed)
+                            throw new JclException( "Class/Resource " + e.getKey() + " already loaded" );
+                        else {
+                            logger.debug( "Class/Resource {} already loaded; ignoring entry...", e.getKey() );
+                            continue;
+                        }
+                    }
+
+                    e.getValue().setBatch( batch );
+                    jarEntryContents.put( e.getKey(), e.getValue() );
+                    added.add( e.getKey() );
+                }
+            } catch (RuntimeException ex) {
+                for (String name : added) {
+                    jarEntryContents.remove( name ).release();
+                }
+                while (it.hasNext()) {
+                    it.next().getValue().release();
+                }
+                throw ex;
+            }
+
+            batch.publish();
+        }
+    }
+
+    /**
+     * Releases the entries of a staging index that is not merged, e.g. when
+     * reading the jar failed
+     * 
+     * @param entries
+     */
+    protected void releaseEntries(Map<String, JclJarEntry> entries) {
+        for (JclJarEntry entry : entries.values()) {
+            entry.release();
+        }
+    }
+
+    /**
+     * Adds a single entry to the index, it is visible immediately
+     * 
+     * @param name
+     * @param entry
+     */
+    protected void addEntry(String name, JclJarEntry entry) {
+        synchronized (writeLock) {
+            addIndexedEntry( jarEntryContents, name, entry );
+        }
+    }
+
+    /**
+     * Removes the entry from the index and releases it
+     * 
+     * @param name
+     * @return false if there was no such entry
+     */
+    protected boolean removeEntry(String name) {
+        JclJarEntry entry;
+        synchronized (writeLock) {
+            entry = jarEntryContents.remove( name );
+        }
+
+        if (entry == null) {
+            return false;
+        }
+
+        entry.release();
+        return true;
+    }
+
+    /**
+     * Creates a staging index, which keeps the entries in the order they were
+     * read
+     * 
+     * @return Map
+     */
+    protected Map<String, JclJarEntry> createStagingIndex() {
+        return new LinkedHashMap<String, JclJarEntry>();
+    }
+
+    /**
+     * Runs the tasks on the executor, or on a temporary pool of the given
+     * number of threads, and returns their results in the order of the tasks.
+     * When called from one of these tasks, e.g. inflating a jar of a folder
+     * loaded in parallel, the tasks run inline so that a bounded executor is
+     * not waited on by its own threads.
+     * 
+     * @param tasks
+     * @param threads
+     * @return List
+     */
+    protected <T> List<T> invokeAll(List<Callable<T>> tasks, int threads) {
+        if (LOADING_TASK.get() != null) {
+            return callAll( tasks );
+        }
+
+        ExecutorService pool = executor;
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool( Math.max( 1, Math.min( threads, tasks.size() ) ),
+                    new LoaderThreadFactory() );
+        }
+
+        List<Callable<T>> marked = new ArrayList<Callable<T>>( tasks.size() );
+        for (Callable<T> task : tasks) {
+            marked.add( new LoadingTask<T>( task ) );
+        }
+
+        try {
+            List<T> results = new ArrayList<T>( tasks.size() );
+            for (Future<T> f : pool.invokeAll( marked )) {
+                results.add( f.get() );
+            }
+
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JclException( e );
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new JclException( e.getCause() );
+        } finally {
+            if (pool != executor) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    private <T> List<T> callAll(List<Callable<T>> tasks) {
+        List<T> results = new ArrayList<T>( tasks.size() );
+        try {
+            for (Callable<T> task : tasks) {
+                results.add( task.call() );
+            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new JclException( e );
+        }
+
+        return results;
+    }
+
+    /**
+     * Marks the thread as running a loading task while the task runs
+     */
+    private static class LoadingTask<T> implements Callable<T> {
+        private final Callable<T> task;
+
+        LoadingTask(Callable<T> task) {
+            this.task = task;
+        }
+
+        public T call() throws Exception {
+            LOADING_TASK.set( Boolean.TRUE );
+            try {
+                return task.call();
+            } finally {
+                LOADING_TASK.remove();
+            }
+        }
+    }
+
     /**
      * Reads the jar file from a specified URL
      * 
@@ -169,6 +748,87 @@ public class JarResources {
      * 
      */
     public void loadJar(String argBaseUrl, InputStream jarStream, boolean closeStream) {
+        Map<String, JclJarEntry> entries = createStagingIndex();
+        try {
+            loadJar( argBaseUrl, jarStream, closeStream, entries );
+        } catch (RuntimeException e) {
+            releaseEntries( entries );
+            throw e;
+        }
+        mergeEntries( entries );
+    }
+
+    private void loadJar(String argBaseUrl, InputStream jarStream, boolean closeStream,
+            Map<String, JclJarEntry> target) {
+        if (keepCompressed) {
+            loadCompressedJar( argBaseUrl, jarStream, closeStream, target );
+        } else {
+            loadJarEntries( argBaseUrl, jarStream, closeStream, target );
+        }
+    }
+
+    /**
+     * Reads the whole jar from the stream and keeps the raw deflated bytes of
+     * each entry, which are inflated every time the entry is requested
+     * 
+     * @param argBaseUrl
+     * @param jarStream
+     * @param closeStream
+     * @param target
+     */
+    protected void loadCompressedJar(String argBaseUrl, InputStream jarStream, boolean closeStream,
+            Map<String, JclJarEntry> target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try {
+            byte[] b = new byte[8192];
+            int len = 0;
+            while (( len = jarStream.read( b ) ) > 0) {
+                out.write( b, 0, len );
+            }
+        } catch (IOException e) {
+            throw new JclException( e );
+        } finally {
+            if (closeStream)
+                try {
+                    jarStream.close();
+                } catch (IOException e) {
+                    throw new JclException( e );
+                }
+        }
+
+        byte[] jar = out.toByteArray();
+        ByteBuffer zip = ByteBuffer.wrap( jar );
+        List<JarCentralDirectory.Entry> entries;
+
+        try {
+            entries = JarCentralDirectory.read( zip );
+        } catch (IOException e) {
+            logger.debug( "Unable to index jar stream, loading all entries: {}", e.getMessage() );
+            loadJarEntries( argBaseUrl, new ByteArrayInputStream( jar ), true, target );
+            return;
+        }
+
+        for (JarCentralDirectory.Entry e : entries) {
+            byte[] raw;
+            try {
+                ByteBuffer data = JarCentralDirectory.entryData( zip, e );
+                raw = new byte[data.remaining()];
+                data.get( raw );
+            } catch (IOException ex) {
+                throw new JclException( ex );
+            }
+
+            JclJarEntry entry = new CompressedJarEntry( raw, e, compressionStats, InflaterPool.getInstance() );
+            entry.setBaseUrl( argBaseUrl );
+            addIndexedEntry( target, e.getName(), entry );
+        }
+
+        logger.debug( "Loaded {} compressed entries, {}", entries.size(), compressionStats );
+    }
+
+    private void loadJarEntries(String argBaseUrl, InputStream jarStream, boolean closeStream,
+            Map<String, JclJarEntry> target) {
 
         BufferedInputStream bis = null;
         JarInputStream jis = null;
@@ -185,7 +845,7 @@ public class JarResources {
                     continue;
                 }
 
-                if (jarEntryContents.containsKey( jarEntry.getName() )) {
+                if (target.containsKey( jarEntry.getName() ) || jarEntryContents.containsKey( jarEntry.getName() )) {
                     if (!collisionAllowed)
                         throw new JclException( "Class/Resource " + jarEntry.getName() + " already loaded" );
                     else {
@@ -205,10 +865,7 @@ public class JarResources {
                 }
 
                 // add to internal resource HashMap
-                JclJarEntry entry = new JclJarEntry();
-                entry.setBaseUrl(argBaseUrl);
-                entry.setResourceBytes(out.toByteArray());
-                jarEntryContents.put( jarEntry.getName(), entry );
+                target.put( jarEntry.getName(), createEntry( argBaseUrl, out.toByteArray() ) );
 
                 logger.debug("{}: size={}, csize={}", jarEntry.getName(), out.size(), jarEntry.getCompressedSize());
 
@@ -237,6 +894,208 @@ public class JarResources {
         }
     }
 
+    /**
+     * Creates the index entry for content that has been read into memory,
+     * from a stream or from a class folder
+     * 
+     * @param argBaseUrl
+     * @param content
+     * @return JclJarEntry
+     */
+    protected JclJarEntry createEntry(String argBaseUrl, byte[] content) {
+        JclJarEntry entry;
+
+        if (offHeap) {
+            entry = new ArenaJarEntry( getArena(), content );
+        } else if (deduplicate) {
+            entry = new SharedJarEntry( SharedResourceStore.getInstance(), content );
+        } else {
+            entry = new JclJarEntry();
+            entry.setResourceBytes( content );
+        }
+
+        entry.setBaseUrl( argBaseUrl );
+        return entry;
+    }
+
+    /**
+     * Removes all resources, closes the jar files that are read on demand and
+     * frees the off-heap storage. Resources obtained earlier must not be used
+     * afterwards.
+     */
+    public void release() {
+        synchronized (writeLock) {
+            for (JclJarEntry entry : jarEntryContents.values()) {
+                entry.release();
+            }
+            jarEntryContents.clear();
+        }
+
+        synchronized (jarFiles) {
+            for (LocalJarFile jar : jarFiles) {
+                jar.close();
+            }
+            jarFiles.clear();
+        }
+
+        synchronized (this) {
+            if (arena != null) {
+                arena.release();
+                arena = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the off-heap storage, which also provides the accounting of the
+     * off-heap bytes in use
+     * 
+     * @return OffHeapArena
+     */
+    public synchronized OffHeapArena getArena() {
+        if (arena == null) {
+            arena = new OffHeapArena();
+        }
+
+        return arena;
+    }
+
+    public boolean isLazyLoading() {
+        return lazyLoading;
+    }
+
+    /**
+     * Enables indexing of local jar files from the central directory, so that
+     * the entries are only inflated when requested
+     * 
+     * @param lazyLoading
+     */
+    public void setLazyLoading(boolean lazyLoading) {
+        this.lazyLoading = lazyLoading;
+    }
+
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * Enables memory mapping of local jar files, which takes precedence over
+     * lazy loading
+     * 
+     * @param memoryMapped
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Stores the content read from streams, such as remote jars, in an
+     * off-heap arena instead of the java heap
+     * 
+     * @param offHeap
+     */
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    public boolean isKeepCompressed() {
+        return keepCompressed;
+    }
+
+    /**
+     * Keeps the raw deflated bytes of jars read from streams in memory and
+     * inflates the entries on demand. This takes precedence over off-heap
+     * storage for jars.
+     * 
+     * @param keepCompressed
+     */
+    public void setKeepCompressed(boolean keepCompressed) {
+        this.keepCompressed = keepCompressed;
+    }
+
+    /**
+     * @return statistics of the entries kept compressed
+     */
+    public CompressionStats getCompressionStats() {
+        return compressionStats;
+    }
+
+    public boolean isDeduplicate() {
+        return deduplicate;
+    }
+
+    /**
+     * Shares the bytes of identical entries read from streams, across all
+     * JarResources instances, through the process wide SharedResourceStore
+     * 
+     * @param deduplicate
+     */
+    public void setDeduplicate(boolean deduplicate) {
+        this.deduplicate = deduplicate;
+    }
+
+    public JarIndexCache getIndexCache() {
+        return indexCache;
+    }
+
+    /**
+     * Sets the on-disk cache for the indexes of lazily loaded jars, null
+     * disables caching
+     * 
+     * @param indexCache
+     */
+    public void setIndexCache(JarIndexCache indexCache) {
+        this.indexCache = indexCache;
+    }
+
+    public boolean isParallelInflation() {
+        return parallelInflation;
+    }
+
+    /**
+     * Loads all entries of local jar files eagerly, inflating them on
+     * <code>parallelism</code> threads, or one per processor if parallelism is
+     * not set
+     * 
+     * @param parallelInflation
+     */
+    public void setParallelInflation(boolean parallelInflation) {
+        this.parallelInflation = parallelInflation;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of jars that are loaded concurrently from library
+     * folders; 1 loads them one after another on the calling thread
+     * 
+     * @param parallelism
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets the executor used for parallel loading, instead of a temporary pool
+     * of <code>parallelism</code> threads. The executor is not shut down by
+     * JarResources.
+     * 
+     * @param executor
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
     /**
      * For debugging
      * 
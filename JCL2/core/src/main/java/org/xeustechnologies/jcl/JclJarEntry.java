@@ -17,10 +17,15 @@
 
 package org.xeustechnologies.jcl;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
 public class JclJarEntry {
   
   private String baseUrl;
   private byte[] resourceBytes;
+  private Batch batch;
   
   public String getBaseUrl() {
     return baseUrl;
@@ -38,4 +43,55 @@ public class JclJarEntry {
     resourceBytes = argResourceBytes;
   }
 
+  /**
+   * Returns the resource content as a buffer that can be passed to
+   * defineClass; heap backed entries wrap their bytes without copying
+   * 
+   * @return ByteBuffer
+   */
+  public ByteBuffer getResourceBuffer() {
+    byte[] bytes = getResourceBytes();
+    return bytes == null ? null : ByteBuffer.wrap(bytes);
+  }
+
+  /**
+   * @return InputStream over the resource content
+   */
+  public InputStream getResourceStream() {
+    byte[] bytes = getResourceBytes();
+    return bytes == null ? null : new ByteArrayInputStream(bytes);
+  }
+
+  /**
+   * Releases the storage held by the entry, called when the entry is removed
+   * from the index
+   */
+  public void release() {
+  }
+
+  /**
+   * An entry added with a batch, e.g. all entries of a jar, becomes visible
+   * when the whole batch is published
+   * 
+   * @return boolean
+   */
+  boolean isVisible() {
+    return batch == null || batch.published;
+  }
+
+  void setBatch(Batch argBatch) {
+    batch = argBatch;
+  }
+
+  /**
+   * Entries that are added to the index together
+   */
+  static final class Batch {
+    private volatile boolean published;
+
+    void publish() {
+      published = true;
+    }
+  }
+
 }
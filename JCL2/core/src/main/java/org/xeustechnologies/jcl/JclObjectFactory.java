@@ -17,6 +17,7 @@
 
 package org.xeustechnologies.jcl;
 
+import java.lang.invoke.MethodHandle;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -26,7 +27,8 @@ import org.xeustechnologies.jcl.exception.JclException;
 
 /**
  * A factory class that loads classes from specified JarClassLoader and tries to
- * instantiate their objects
+ * instantiate their objects. The constructors and factory methods are resolved
+ * once per class and signature and then invoked through cached method handles.
  * 
  * @author Kamran Zafar
  * 
@@ -35,7 +37,19 @@ import org.xeustechnologies.jcl.exception.JclException;
 public class JclObjectFactory {
     private static JclObjectFactory jclObjectFactory = new JclObjectFactory();
     private static boolean autoProxy;
-    private final transient Logger logger = LoggerFactory.getLogger(JclObjectFactory.class);
+    private static final Class[] NO_TYPES = new Class[0];
+    private static final Object[] NO_ARGS = new Object[0];
+
+    /**
+     * Proxy recipes by the class of the proxied objects, they go away with the
+     * class and its loader
+     */
+    private static final ClassValue<ProxyRecipe> proxyRecipes = new ClassValue<ProxyRecipe>() {
+        @Override
+        protected ProxyRecipe computeValue(Class<?> type) {
+            return new ProxyRecipe( type );
+        }
+    };
 
     /**
      * private constructor
@@ -86,20 +100,7 @@ public class JclObjectFactory {
      * @return Object
      */
     public Object create(JarClassLoader jcl, String className, Object... args) {
-        if (args == null || args.length == 0) {
-            try {
-                return newInstance( jcl.loadClass( className ).newInstance() );
-            } catch (Throwable e) {
-                throw new JclException( e );
-            }
-        }
-
-        Class[] types = new Class[args.length];
-
-        for (int i = 0; i < args.length; i++)
-            types[i] = args[i].getClass();
-
-        return create( jcl, className, args, types );
+        return create( jcl, className, args, getTypes( args ) );
     }
 
     /**
@@ -116,21 +117,16 @@ public class JclObjectFactory {
     public Object create(JarClassLoader jcl, String className, Object[] args, Class[] types) {
         Object obj = null;
 
-        if (args == null || args.length == 0) {
-            try {
-                obj = jcl.loadClass( className ).newInstance();
-            } catch (Throwable e) {
-                throw new JclException( e );
-            }
-        } else {
-            try {
-                obj = jcl.loadClass( className ).getConstructor( types ).newInstance( args );
-            } catch (Exception e) {
-                throw new JclException( e );
-            }
-        }
+        try {
+            MethodHandle invoker = InvokerCache.constructor( jcl.loadClass( className ), getTypes( args, types ) );
+            obj = (Object) invoker.invokeExact( getArgs( args ) );
 
-        return newInstance( obj );
+            return newInstance( obj );
+        } catch (JclException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new JclException( e );
+        }
     }
 
     /**
@@ -144,19 +140,7 @@ public class JclObjectFactory {
      * @return Object
      */
     public Object create(JarClassLoader jcl, String className, String methodName, Object... args) {
-        if (args == null || args.length == 0) {
-            try {
-                return newInstance( jcl.loadClass( className ).getMethod( methodName ).invoke( null ) );
-            } catch (Exception e) {
-                throw new JclException( e );
-            }
-        }
-        Class[] types = new Class[args.length];
-
-        for (int i = 0; i < args.length; i++)
-            types[i] = args[i].getClass();
-
-        return create( jcl, className, methodName, args, types );
+        return create( jcl, className, methodName, args, getTypes( args ) );
     }
 
     /**
@@ -172,21 +156,67 @@ public class JclObjectFactory {
      */
     public Object create(JarClassLoader jcl, String className, String methodName, Object[] args, Class[] types) {
         Object obj = null;
-        if (args == null || args.length == 0) {
-            try {
-                obj = jcl.loadClass( className ).getMethod( methodName ).invoke( null );
-            } catch (Exception e) {
-                throw new JclException( e );
-            }
-        } else {
-            try {
-                obj = jcl.loadClass( className ).getMethod( methodName, types ).invoke( null, args );
-            } catch (Exception e) {
-                throw new JclException( e );
-            }
+
+        try {
+            MethodHandle invoker = InvokerCache.factoryMethod( jcl.loadClass( className ), methodName,
+                    getTypes( args, types ) );
+            obj = (Object) invoker.invokeExact( getArgs( args ) );
+
+            return newInstance( obj );
+        } catch (JclException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new JclException( e );
         }
+    }
+
+    /**
+     * Returns a reusable instantiator of the class, which invokes the
+     * constructor that takes the given types without looking it up again
+     * 
+     * @param jcl
+     * @param className
+     * @param types
+     * @return Instantiator
+     */
+    public Instantiator instantiator(JarClassLoader jcl, String className, Class... types) {
+        if (types == null)
+            types = NO_TYPES;
+
+        try {
+            Class c = jcl.loadClass( className );
+            MethodHandle constructor = InvokerCache.resolveConstructor( c, types );
+
+            return new Instantiator( c, constructor.asType( constructor.type().generic() ) );
+        } catch (ClassNotFoundException e) {
+            throw new JclException( e );
+        }
+    }
+
+    /**
+     * Returns the types of the arguments, null for null arguments
+     * 
+     * @param args
+     * @return Class[]
+     */
+    private static Class[] getTypes(Object[] args) {
+        if (args == null || args.length == 0)
+            return NO_TYPES;
+
+        Class[] types = new Class[args.length];
+
+        for (int i = 0; i < args.length; i++)
+            types[i] = args[i] == null ? null : args[i].getClass();
+
+        return types;
+    }
+
+    private static Class[] getTypes(Object[] args, Class[] types) {
+        return args == null || args.length == 0 ? NO_TYPES : types;
+    }
 
-        return newInstance( obj );
+    private static Object[] getArgs(Object[] args) {
+        return args == null ? NO_ARGS : args;
     }
 
     /**
@@ -197,40 +227,134 @@ public class JclObjectFactory {
      */
     private Object newInstance(Object object) {
         if (autoProxy) {
+            ProxyRecipe recipe = proxyRecipes.get( object.getClass() );
+
+            if (recipe.error != null) {
+                throw new JclException( recipe.error );
+            }
+
+            return JclUtils.createProxy( object, recipe.superClass, recipe.interfaces, null );
+        }
+
+        return object;
+    }
+
+    /**
+     * The superclass and interfaces of a class that are found in the current
+     * classloader, which the proxies of its objects extend and implement.
+     * They never change for a class, so they are resolved once per class.
+     */
+    private static class ProxyRecipe {
+        private final Class superClass;
+        private final Class[] interfaces;
+        private final String error;
 
+        ProxyRecipe(Class type) {
             Class superClass = null;
 
             // Check class
-            try {
-                Class.forName( object.getClass().getSuperclass().getName() );
-                superClass = object.getClass().getSuperclass();
-            } catch (ClassNotFoundException e) {
+            if (type.getSuperclass() != null) {
+                superClass = findClass( type.getSuperclass().getName() );
             }
 
-            Class[] interfaces = object.getClass().getInterfaces();
-
             List<Class> il = new ArrayList<Class>();
 
             // Check available interfaces
-            for (Class i : interfaces) {
-                try {
-                    Class.forName( i.getClass().getName() );
-                    il.add( i );
-                } catch (ClassNotFoundException e) {
+            for (Class i : type.getInterfaces()) {
+                Class found = findClass( i.getName() );
+                if (found != null) {
+                    il.add( found );
                 }
             }
 
+            this.superClass = superClass;
+            this.interfaces = il.toArray( new Class[il.size()] );
+
+            Logger logger = LoggerFactory.getLogger( JclObjectFactory.class );
             logger.debug( "Class: {}", superClass );
             logger.debug( "Class Interfaces: {}", il );
 
-            if (superClass == null && il.size() == 0) {
-                throw new JclException( "Neither the class [" + object.getClass().getSuperclass().getName()
-                        + "] nor all the implemented interfaces found in the current classloader" );
+            if (superClass == null && il.isEmpty()) {
+                this.error = "Neither the class ["
+                        + ( type.getSuperclass() == null ? type.getName() : type.getSuperclass().getName() )
+                        + "] nor all the implemented interfaces found in the current classloader";
+            } else {
+                this.error = null;
             }
+        }
 
-            return JclUtils.createProxy( object, superClass, il.toArray( new Class[il.size()] ), null );
+        private static Class findClass(String name) {
+            try {
+                return Class.forName( name );
+            } catch (ClassNotFoundException e) {
+                return null;
+            }
         }
+    }
 
-        return object;
+    /**
+     * Creates objects of a class through its resolved constructor. The
+     * constructor is bound once, as a method handle, so creating an object
+     * costs about as much as a direct constructor call once the JIT has
+     * compiled it; for the best results keep the instantiator in a static
+     * final field. Instantiators are thread-safe.
+     */
+    public class Instantiator {
+        private final Class type;
+        private final MethodHandle constructor;
+        private final MethodHandle spreader;
+
+        Instantiator(Class type, MethodHandle constructor) {
+            this.type = type;
+            this.constructor = constructor;
+            this.spreader = constructor.asSpreader( Object[].class, constructor.type().parameterCount() );
+        }
+
+        public Class getType() {
+            return type;
+        }
+
+        /**
+         * @return number of the constructor arguments
+         */
+        public int getArity() {
+            return constructor.type().parameterCount();
+        }
+
+        public Object newInstance() {
+            try {
+                return proxy( (Object) constructor.invokeExact() );
+            } catch (Throwable e) {
+                throw new JclException( e );
+            }
+        }
+
+        public Object newInstance(Object arg) {
+            try {
+                return proxy( (Object) constructor.invokeExact( arg ) );
+            } catch (Throwable e) {
+                throw new JclException( e );
+            }
+        }
+
+        public Object newInstance(Object arg1, Object arg2) {
+            try {
+                return proxy( (Object) constructor.invokeExact( arg1, arg2 ) );
+            } catch (Throwable e) {
+                throw new JclException( e );
+            }
+        }
+
+        public Object newInstance(Object... args) {
+            try {
+                return proxy( (Object) spreader.invokeExact( args == null ? NO_ARGS : args ) );
+            } catch (Throwable e) {
+                throw new JclException( e );
+            }
+        }
+
+        private Object proxy(Object obj) {
+            return autoProxy ? JclObjectFactory.this.newInstance( obj ) : obj;
+        }
     }
 }
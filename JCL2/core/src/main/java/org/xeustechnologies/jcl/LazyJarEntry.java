@@ -0,0 +1,74 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import java.io.IOException;
+
+import org.xeustechnologies.jcl.exception.JclException;
+
+/**
+ * Jar entry that only holds the index information from the central directory,
+ * the bytes are read and inflated the first time they are requested, and
+ * checked against the CRC-32 of the central directory
+ */
+public class LazyJarEntry extends JclJarEntry {
+
+    private final LocalJarFile jarFile;
+    private final JarCentralDirectory.Entry entry;
+    private volatile byte[] bytes;
+
+    public LazyJarEntry(LocalJarFile jarFile, JarCentralDirectory.Entry entry) {
+        this.jarFile = jarFile;
+        this.entry = entry;
+    }
+
+    @Override
+    public byte[] getResourceBytes() {
+        byte[] b = bytes;
+        if (b == null) {
+            try {
+                b = jarFile.readEntry( entry );
+            } catch (IOException e) {
+                throw new JclException( e );
+            }
+            bytes = b;
+        }
+
+        return b;
+    }
+
+    @Override
+    public void setResourceBytes(byte[] argResourceBytes) {
+        bytes = argResourceBytes;
+    }
+
+    public JarCentralDirectory.Entry getEntry() {
+        return entry;
+    }
+
+    public LocalJarFile getJarFile() {
+        return jarFile;
+    }
+
+    /**
+     * @return true if the entry bytes have been read
+     */
+    public boolean isLoaded() {
+        return bytes != null;
+    }
+}
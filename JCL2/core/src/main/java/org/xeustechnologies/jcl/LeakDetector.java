@@ -0,0 +1,276 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xeustechnologies.jcl.context.JclContext;
+import org.xeustechnologies.jcl.proxy.ProxyProviderFactory;
+
+/**
+ * Tracks released JarClassLoaders and reports the ones that are still
+ * reachable after a number of garbage collections. Such loaders are leaked:
+ * they keep their classes, resources and jars alive. For every leak the known
+ * holders are reported, such as the JCL context, shared libraries, the proxy
+ * provider and the context class loader of live threads; references from
+ * elsewhere need a heap dump to be found.
+ * 
+ * Released loaders are tracked automatically if leak detection is enabled,
+ * see Configuration.
+ */
+public class LeakDetector {
+    private static final LeakDetector instance = new LeakDetector( 3 );
+
+    private final ReferenceQueue<JarClassLoader> queue = new ReferenceQueue<JarClassLoader>();
+    private final Set<TrackedLoader> tracked = Collections
+            .newSetFromMap( new ConcurrentHashMap<TrackedLoader, Boolean>() );
+
+    private volatile int gcCycles;
+    private volatile int suspectedLeaks;
+    private final AtomicLong collected = new AtomicLong();
+
+    private final transient Logger logger = LoggerFactory.getLogger( LeakDetector.class );
+
+    /**
+     * @param gcCycles
+     *            garbage collections after which a released loader that is
+     *            still reachable is reported
+     */
+    public LeakDetector(int gcCycles) {
+        this.gcCycles = gcCycles;
+    }
+
+    /**
+     * Returns the process wide detector
+     * 
+     * @return LeakDetector
+     */
+    public static LeakDetector getInstance() {
+        return instance;
+    }
+
+    /**
+     * Tracks a released loader, which is expected to become unreachable
+     * 
+     * @param loader
+     */
+    public void track(JarClassLoader loader) {
+        tracked.add( new TrackedLoader( loader, queue, gcCount() ) );
+        expunge();
+    }
+
+    /**
+     * Returns the tracked loaders that are still reachable after the
+     * configured number of garbage collections, and updates the count of
+     * suspected leaks
+     * 
+     * @return List of leaks
+     */
+    public List<Leak> check() {
+        expunge();
+
+        long gcCount = gcCount();
+        List<Leak> leaks = new ArrayList<Leak>();
+
+        for (TrackedLoader t : tracked) {
+            long cycles = gcCount - t.gcCountAtRelease;
+            JarClassLoader loader = t.get();
+
+            if (loader != null && cycles >= gcCycles) {
+                leaks.add( new Leak( t.name, t.releasedAt, cycles, findHolders( loader ) ) );
+            }
+        }
+
+        suspectedLeaks = leaks.size();
+
+        for (Leak leak : leaks) {
+            logger.debug( "{}", leak );
+        }
+
+        return leaks;
+    }
+
+    private void expunge() {
+        Reference<? extends JarClassLoader> r;
+        while (( r = queue.poll() ) != null) {
+            if (tracked.remove( r )) {
+                collected.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Finds the known references to the loader
+     * 
+     * @param loader
+     * @return List of holders
+     */
+    protected List<String> findHolders(JarClassLoader loader) {
+        List<String> holders = new ArrayList<String>();
+
+        for (Map.Entry<String, JarClassLoader> e : JclContext.getAll().entrySet()) {
+            if (e.getValue() == loader) {
+                holders.add( "JclContext[" + e.getKey() + "]" );
+            }
+        }
+
+        for (SharedLibraryLoader shared : SharedLibraryRegistry.getInstance().getLibraries()) {
+            if (shared.getLibrary() == loader) {
+                holders.add( "SharedLibraryRegistry[" + shared.getDigest() + "]" );
+            }
+        }
+
+        if (ProxyProviderFactory.create().getClass().getClassLoader() == loader) {
+            holders.add( "ProxyProviderFactory default provider" );
+        }
+
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (isAncestor( loader, thread.getContextClassLoader() )) {
+                holders.add( "Thread[" + thread.getName() + "] context class loader" );
+            }
+            if (isAncestor( loader, thread.getClass().getClassLoader() )) {
+                holders.add( "Thread[" + thread.getName() + "] class" );
+            }
+        }
+
+        return holders;
+    }
+
+    private static boolean isAncestor(ClassLoader loader, ClassLoader cl) {
+        for (; cl != null; cl = cl.getParent()) {
+            if (cl == loader) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max( 0, gc.getCollectionCount() );
+        }
+
+        return count;
+    }
+
+    public int getGcCycles() {
+        return gcCycles;
+    }
+
+    public void setGcCycles(int gcCycles) {
+        this.gcCycles = gcCycles;
+    }
+
+    /**
+     * @return number of released loaders that are not collected yet
+     */
+    public int getTrackedCount() {
+        expunge();
+        return tracked.size();
+    }
+
+    /**
+     * @return number of released loaders that were collected
+     */
+    public long getCollectedCount() {
+        expunge();
+        return collected.get();
+    }
+
+    /**
+     * @return number of leaks found by the last check
+     */
+    public int getSuspectedLeakCount() {
+        return suspectedLeaks;
+    }
+
+    private static class TrackedLoader extends WeakReference<JarClassLoader> {
+        private final String name;
+        private final long releasedAt = System.currentTimeMillis();
+        private final long gcCountAtRelease;
+
+        TrackedLoader(JarClassLoader loader, ReferenceQueue<JarClassLoader> queue, long gcCount) {
+            super( loader, queue );
+            this.name = loader.getClass().getName() + "@" + Integer.toHexString( System.identityHashCode( loader ) );
+            this.gcCountAtRelease = gcCount;
+        }
+    }
+
+    /**
+     * A released loader that is still reachable
+     */
+    public static class Leak {
+        private final String loader;
+        private final long releasedAt;
+        private final long gcCycles;
+        private final List<String> holders;
+
+        Leak(String loader, long releasedAt, long gcCycles, List<String> holders) {
+            this.loader = loader;
+            this.releasedAt = releasedAt;
+            this.gcCycles = gcCycles;
+            this.holders = Collections.unmodifiableList( holders );
+        }
+
+        public String getLoader() {
+            return loader;
+        }
+
+        /**
+         * @return time of the release, in milliseconds
+         */
+        public long getReleasedAt() {
+            return releasedAt;
+        }
+
+        /**
+         * @return garbage collections since the release
+         */
+        public long getGcCycles() {
+            return gcCycles;
+        }
+
+        /**
+         * @return the known references to the loader
+         */
+        public List<String> getHolders() {
+            return holders;
+        }
+
+        @Override
+        public String toString() {
+            return "Leaked " + loader + " after " + gcCycles + " GC cycles, held by "
+                    + ( holders.isEmpty() ? "unknown references" : holders.toString() );
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+/**
+ * Notified when an asynchronous lookup of a class loader completes. It is
+ * called on the thread that completed the lookup, or on the caller if the
+ * lookup had already completed, so it should return quickly.
+ * 
+ * @param <T>
+ *            the looked up type, Class or URL
+ */
+public interface LoadCallback<T> {
+    /**
+     * @param name
+     *            the name of the class or resource
+     * @param result
+     *            the class, or the resource URL, which is null if the
+     *            resource is not found
+     */
+    void loaded(String name, T result);
+
+    /**
+     * @param name
+     *            the name of the class or resource
+     * @param t
+     *            the cause, e.g. ClassNotFoundException
+     */
+    void failed(String name, Throwable t);
+}
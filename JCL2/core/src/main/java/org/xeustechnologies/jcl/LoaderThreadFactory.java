@@ -0,0 +1,36 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Daemon threads for the pools created by JCL itself
+ */
+class LoaderThreadFactory implements ThreadFactory {
+    private static final AtomicInteger poolNumber = new AtomicInteger();
+    private final AtomicInteger threadNumber = new AtomicInteger();
+    private final String prefix = "jcl-loader-" + poolNumber.incrementAndGet() + "-";
+
+    public Thread newThread(Runnable r) {
+        Thread t = new Thread( r, prefix + threadNumber.incrementAndGet() );
+        t.setDaemon( true );
+        return t;
+    }
+}
@@ -0,0 +1,253 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.xeustechnologies.jcl.exception.JclException;
+
+/**
+ * The classes and resources loaded by a class loader, in the order they were
+ * first loaded, together with the loader that served each of them. A profile
+ * recorded during one start can be replayed on the next to load the same
+ * classes ahead of the application.
+ */
+public class LoadingProfile {
+    private static final int MAGIC = 0x4A434C50; // JCLP
+    private static final int VERSION = 1;
+
+    public enum Kind {
+        CLASS, RESOURCE
+    }
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private final Set<String> classes = Collections.newSetFromMap( new ConcurrentHashMap<String, Boolean>() );
+    private final Set<String> resources = Collections.newSetFromMap( new ConcurrentHashMap<String, Boolean>() );
+
+    /**
+     * Records a loaded class or resource, only its first load is kept
+     * 
+     * @param kind
+     * @param name
+     * @param loader
+     * @param loaderIndex
+     *            index of the loader among the loaders of the same type and
+     *            order
+     */
+    void record(Kind kind, String name, ProxyClassLoader loader, int loaderIndex) {
+        if (( kind == Kind.CLASS ? classes : resources ).add( name )) {
+            synchronized (entries) {
+                entries.add( new Entry( kind, name, loader.getClass().getName(), loader.getOrder(), loaderIndex ) );
+            }
+        }
+    }
+
+    /**
+     * @return the recorded entries in load order
+     */
+    public List<Entry> getEntries() {
+        synchronized (entries) {
+            return Collections.unmodifiableList( new ArrayList<Entry>( entries ) );
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Writes the profile to the file. The loaders are written once, and the
+     * file is compressed.
+     * 
+     * @param file
+     */
+    public void write(File file) {
+        List<Entry> snapshot = getEntries();
+        DataOutputStream out = null;
+
+        try {
+            out = new DataOutputStream( new BufferedOutputStream( new GZIPOutputStream( new FileOutputStream( file ) ) ) );
+
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+
+            Map<String, Integer> loaders = new HashMap<String, Integer>();
+            List<Entry> loaderEntries = new ArrayList<Entry>();
+            for (Entry e : snapshot) {
+                if (!loaders.containsKey( e.getLoaderKey() )) {
+                    loaders.put( e.getLoaderKey(), loaders.size() );
+                    loaderEntries.add( e );
+                }
+            }
+
+            out.writeShort( loaderEntries.size() );
+            for (Entry e : loaderEntries) {
+                out.writeUTF( e.getLoaderClass() );
+                out.writeInt( e.getLoaderOrder() );
+                out.writeShort( e.getLoaderIndex() );
+            }
+
+            out.writeInt( snapshot.size() );
+            for (Entry e : snapshot) {
+                out.writeByte( e.getKind().ordinal() );
+                out.writeShort( loaders.get( e.getLoaderKey() ) );
+                out.writeUTF( e.getName() );
+            }
+
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            throw new JclException( e );
+        } finally {
+            if (out != null)
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+        }
+    }
+
+    /**
+     * Reads a profile written by {@link #write(File)}
+     * 
+     * @param file
+     * @return LoadingProfile
+     */
+    public static LoadingProfile read(File file) {
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream( new BufferedInputStream( new GZIPInputStream( new FileInputStream( file ) ) ) );
+
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new JclException( "Not a class loading profile: " + file );
+            }
+
+            int loaderCount = in.readUnsignedShort();
+            String[] loaderClasses = new String[loaderCount];
+            int[] loaderOrders = new int[loaderCount];
+            int[] loaderIndexes = new int[loaderCount];
+            for (int i = 0; i < loaderCount; i++) {
+                loaderClasses[i] = in.readUTF();
+                loaderOrders[i] = in.readInt();
+                loaderIndexes[i] = in.readUnsignedShort();
+            }
+
+            LoadingProfile profile = new LoadingProfile();
+            Kind[] kinds = Kind.values();
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Kind kind = kinds[in.readUnsignedByte()];
+                int loader = in.readUnsignedShort();
+                String name = in.readUTF();
+
+                ( kind == Kind.CLASS ? profile.classes : profile.resources ).add( name );
+                profile.entries.add( new Entry( kind, name, loaderClasses[loader], loaderOrders[loader],
+                        loaderIndexes[loader] ) );
+            }
+
+            return profile;
+        } catch (IOException e) {
+            throw new JclException( e );
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new JclException( "Corrupt class loading profile: " + file, e );
+        } finally {
+            if (in != null)
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+        }
+    }
+
+    static String loaderKey(String loaderClass, int loaderOrder, int loaderIndex) {
+        return loaderClass + "@" + loaderOrder + "#" + loaderIndex;
+    }
+
+    /**
+     * A loaded class or resource. The loader is identified by its type, its
+     * order and its index among the loaders of the same type and order, which
+     * stay the same between starts as long as the loaders are added in the
+     * same sequence.
+     */
+    public static class Entry {
+        private final Kind kind;
+        private final String name;
+        private final String loaderClass;
+        private final int loaderOrder;
+        private final int loaderIndex;
+
+        Entry(Kind kind, String name, String loaderClass, int loaderOrder, int loaderIndex) {
+            this.kind = kind;
+            this.name = name;
+            this.loaderClass = loaderClass;
+            this.loaderOrder = loaderOrder;
+            this.loaderIndex = loaderIndex;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getLoaderClass() {
+            return loaderClass;
+        }
+
+        public int getLoaderOrder() {
+            return loaderOrder;
+        }
+
+        public int getLoaderIndex() {
+            return loaderIndex;
+        }
+
+        String getLoaderKey() {
+            return loaderKey( loaderClass, loaderOrder, loaderIndex );
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + name + " [" + getLoaderKey() + "]";
+        }
+    }
+}
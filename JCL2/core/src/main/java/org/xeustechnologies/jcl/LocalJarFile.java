@@ -0,0 +1,97 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * A jar file on the local file system whose entries are read on demand. The
+ * file is opened on first access and kept open until it is closed.
+ */
+public class LocalJarFile {
+
+    private final File file;
+    private FileChannel channel;
+
+    public LocalJarFile(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Reads the central directory of the jar
+     * 
+     * @return List of entries
+     * @throws IOException
+     */
+    public List<JarCentralDirectory.Entry> readCentralDirectory() throws IOException {
+        return JarCentralDirectory.read( channel() );
+    }
+
+    /**
+     * Reads and inflates the entry bytes
+     * 
+     * @param entry
+     * @return byte[]
+     * @throws IOException
+     */
+    public byte[] readEntry(JarCentralDirectory.Entry entry) throws IOException {
+        try {
+            return JarCentralDirectory.readEntry( channel(), entry );
+        } catch (ClosedChannelException e) {
+            // An interrupt on any reading thread closes the channel, so
+            // reopen it once
+            return JarCentralDirectory.readEntry( reopen(), entry );
+        }
+    }
+
+    /**
+     * Closes the underlying file, it is reopened on next access
+     */
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            channel = null;
+        }
+    }
+
+    private synchronized FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = new RandomAccessFile( file, "r" ).getChannel();
+        }
+
+        return channel;
+    }
+
+    private synchronized FileChannel reopen() throws IOException {
+        close();
+        return channel();
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+
+import org.xeustechnologies.jcl.exception.JclException;
+import org.xeustechnologies.jcl.utils.ByteBufferInputStream;
+
+/**
+ * Jar entry served from a memory mapped jar. Stored entries are returned as
+ * read-only slices of the mapping, deflated entries are inflated from the
+ * mapping every time they are requested and are never held on the heap.
+ * The content is checked against the CRC-32 of the central directory.
+ */
+public class MappedJarEntry extends JclJarEntry {
+
+    private final MappedJarFile jarFile;
+    private final JarCentralDirectory.Entry entry;
+
+    /**
+     * Set once the CRC-32 of a stored entry has been checked, the mapping is
+     * read-only
+     */
+    private volatile boolean checked;
+
+    public MappedJarEntry(MappedJarFile jarFile, JarCentralDirectory.Entry entry) {
+        this.jarFile = jarFile;
+        this.entry = entry;
+    }
+
+    @Override
+    public byte[] getResourceBytes() {
+        if (isStored()) {
+            ByteBuffer data = storedData();
+            byte[] bytes = new byte[data.remaining()];
+            data.get( bytes );
+            return bytes;
+        }
+
+        try {
+            return JarCentralDirectory.inflate( entryData(), entry );
+        } catch (IOException e) {
+            throw new JclException( e );
+        }
+    }
+
+    @Override
+    public ByteBuffer getResourceBuffer() {
+        if (isStored()) {
+            return storedData();
+        }
+
+        return ByteBuffer.wrap( getResourceBytes() );
+    }
+
+    @Override
+    public InputStream getResourceStream() {
+        if (isStored()) {
+            return new ByteBufferInputStream( storedData() );
+        }
+
+        InputStream in = new ByteBufferInputStream( entryData() );
+
+        // Inflater in nowrap mode may need an extra dummy byte at the end
+        in = new SequenceInputStream( in, new ByteArrayInputStream( new byte[1] ) );
+
+        final Inflater inflater = new Inflater( true );
+        return new InflaterInputStream( in, inflater ) {
+            private final CRC32 crc = new CRC32();
+            private boolean closed;
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read( b, off, len );
+                if (n > 0) {
+                    crc.update( b, off, n );
+                } else if (n < 0) {
+                    // Checked at the end of the data, as JarInputStream does
+                    JarCentralDirectory.checkCrc( crc.getValue(), entry );
+                }
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                if (!closed) {
+                    closed = true;
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    public JarCentralDirectory.Entry getEntry() {
+        return entry;
+    }
+
+    private boolean isStored() {
+        return entry.getMethod() == ZipEntry.STORED;
+    }
+
+    private ByteBuffer storedData() {
+        ByteBuffer data = entryData();
+
+        if (!checked) {
+            try {
+                JarCentralDirectory.checkCrc( data, entry );
+            } catch (IOException e) {
+                throw new JclException( e );
+            }
+            checked = true;
+        }
+
+        return data;
+    }
+
+    private ByteBuffer entryData() {
+        try {
+            return jarFile.entryData( entry );
+        } catch (IOException e) {
+            throw new JclException( e );
+        }
+    }
+}
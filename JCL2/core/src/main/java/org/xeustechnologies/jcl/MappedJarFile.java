@@ -0,0 +1,77 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * A jar file on the local file system that is memory mapped read-only. The
+ * mapping stays valid until it is garbage collected, the file itself is closed
+ * as soon as it is mapped.
+ */
+public class MappedJarFile {
+
+    private final File file;
+    private final ByteBuffer mapping;
+
+    public MappedJarFile(File file) throws IOException {
+        this.file = file;
+
+        RandomAccessFile raf = new RandomAccessFile( file, "r" );
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException( "Jar file too large to be mapped" );
+            }
+
+            mapping = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+        } finally {
+            raf.close();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Reads the central directory from the mapping
+     * 
+     * @return List of entries
+     * @throws IOException
+     */
+    public List<JarCentralDirectory.Entry> readCentralDirectory() throws IOException {
+        return JarCentralDirectory.read( mapping );
+    }
+
+    /**
+     * Returns a read-only slice of the mapping with the raw entry data
+     * 
+     * @param entry
+     * @return ByteBuffer
+     * @throws IOException
+     */
+    public ByteBuffer entryData(JarCentralDirectory.Entry entry) throws IOException {
+        return JarCentralDirectory.entryData( mapping, entry );
+    }
+}
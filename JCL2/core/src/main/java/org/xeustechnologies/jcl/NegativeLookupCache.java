@@ -0,0 +1,161 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of class or resource names that were not found by any loader
+ * of the chain, so that repeated lookups of missing names do not walk the
+ * whole chain again. The cache is invalidated whenever sources or loaders are
+ * added; it must also be invalidated when loaders are enabled, disabled or
+ * reordered, or when the parent loaders can find new classes.
+ */
+public class NegativeLookupCache {
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private final ConcurrentMap<String, Boolean> misses = new ConcurrentHashMap<String, Boolean>();
+    private final int maxSize;
+    private volatile boolean enabled;
+
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+
+    public NegativeLookupCache() {
+        this( DEFAULT_MAX_SIZE );
+    }
+
+    public NegativeLookupCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.enabled = Configuration.negativeCache();
+    }
+
+    /**
+     * Checks if the name is a known miss
+     * 
+     * @param name
+     * @return boolean
+     */
+    public boolean contains(String name) {
+        if (!enabled) {
+            return false;
+        }
+
+        lookups.incrementAndGet();
+        if (misses.containsKey( name )) {
+            hits.incrementAndGet();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the current generation, which is taken before a lookup and
+     * passed to {@link #add(String, long)} if the lookup misses
+     * 
+     * @return long
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Records a miss, unless the cache was invalidated since the lookup began
+     * 
+     * @param name
+     * @param lookupGeneration
+     */
+    public void add(String name, long lookupGeneration) {
+        if (!enabled || generation.get() != lookupGeneration) {
+            return;
+        }
+
+        if (misses.size() >= maxSize) {
+            Iterator<String> it = misses.keySet().iterator();
+            if (it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+
+        misses.put( name, Boolean.TRUE );
+
+        // Invalidated concurrently
+        if (generation.get() != lookupGeneration) {
+            misses.remove( name );
+        }
+    }
+
+    /**
+     * Removes all misses
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        misses.clear();
+    }
+
+    public int size() {
+        return misses.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        invalidate();
+    }
+
+    /**
+     * @return number of lookups while enabled
+     */
+    public long getLookupCount() {
+        return lookups.get();
+    }
+
+    /**
+     * @return number of lookups answered by the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return ratio of hits to lookups
+     */
+    public double getHitRate() {
+        long l = lookups.get();
+        return l == 0 ? 0 : (double) hits.get() / l;
+    }
+
+    @Override
+    public String toString() {
+        return "NegativeLookupCache[size=" + size() + ", lookups=" + getLookupCount() + ", hits=" + getHitCount()
+                + "]";
+    }
+}
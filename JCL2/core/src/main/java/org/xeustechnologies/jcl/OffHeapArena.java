@@ -0,0 +1,193 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xeustechnologies.jcl.exception.JclException;
+
+/**
+ * Append-only off-heap storage for resource bytes. Content is copied into
+ * large direct buffers (chunks) and is addressed by an offset and a length, so
+ * that it does not add to the java heap. Individual entries are never
+ * compacted; the chunks are reclaimed by the garbage collector once the arena
+ * is released and no slice of them is in use any more.
+ */
+public class OffHeapArena {
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private final int chunkSize;
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private volatile boolean released;
+    private int current = -1;
+
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    public OffHeapArena() {
+        this( DEFAULT_CHUNK_SIZE );
+    }
+
+    public OffHeapArena(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Copies the content into the arena
+     * 
+     * @param data
+     * @param off
+     * @param len
+     * @return the address of the content
+     */
+    public synchronized long store(byte[] data, int off, int len) {
+        checkReleased();
+
+        int index;
+        if (len > chunkSize) {
+            // Large content gets a chunk of its own
+            index = addChunk( len );
+        } else {
+            if (current < 0 || chunks[current].remaining() < len) {
+                current = addChunk( chunkSize );
+            }
+            index = current;
+        }
+
+        ByteBuffer chunk = chunks[index];
+        int offset = chunk.position();
+        chunk.put( data, off, len );
+
+        usedBytes.addAndGet( len );
+
+        return ( (long) index << 32 ) | offset;
+    }
+
+    /**
+     * Returns a read-only direct buffer over the content, without copying it
+     * 
+     * @param address
+     * @param length
+     * @return ByteBuffer
+     */
+    public ByteBuffer slice(long address, int length) {
+        ByteBuffer buf = chunk( address ).duplicate();
+        int offset = (int) address;
+
+        buf.limit( offset + length );
+        buf.position( offset );
+
+        return buf.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Copies the content to the heap
+     * 
+     * @param address
+     * @param length
+     * @return byte[]
+     */
+    public byte[] read(long address, int length) {
+        byte[] bytes = new byte[length];
+        slice( address, length ).get( bytes );
+
+        return bytes;
+    }
+
+    /**
+     * Marks the content as no longer in use. The space is only reclaimed when
+     * the arena is released.
+     * 
+     * @param length
+     */
+    public void free(int length) {
+        usedBytes.addAndGet( -length );
+    }
+
+    /**
+     * Drops the chunks, no more content can be stored or read. The chunks are
+     * not freed explicitly: slices handed out before, e.g. to a class being
+     * defined, keep their chunk alive and stay readable, and the native memory
+     * is reclaimed when the last of them is garbage collected.
+     */
+    public synchronized void release() {
+        if (released) {
+            return;
+        }
+
+        released = true;
+
+        chunks = new ByteBuffer[0];
+        current = -1;
+
+        usedBytes.set( 0 );
+        allocatedBytes.set( 0 );
+    }
+
+    /**
+     * @return number of bytes of content in use
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    /**
+     * @return number of bytes allocated off-heap
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    public int getChunkCount() {
+        return chunks.length;
+    }
+
+    public boolean isReleased() {
+        return released;
+    }
+
+    private int addChunk(int size) {
+        ByteBuffer[] old = chunks;
+        ByteBuffer[] grown = new ByteBuffer[old.length + 1];
+        System.arraycopy( old, 0, grown, 0, old.length );
+        grown[old.length] = ByteBuffer.allocateDirect( size );
+
+        allocatedBytes.addAndGet( size );
+        chunks = grown;
+
+        return old.length;
+    }
+
+    private ByteBuffer chunk(long address) {
+        ByteBuffer[] c = chunks;
+        int index = (int) ( address >>> 32 );
+
+        if (released || index >= c.length) {
+            throw new JclException( "Off-heap arena has been released" );
+        }
+
+        return c[index];
+    }
+
+    private void checkReleased() {
+        if (released) {
+            throw new JclException( "Off-heap arena has been released" );
+        }
+    }
+}
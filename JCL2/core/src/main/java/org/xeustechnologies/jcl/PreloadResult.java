@@ -0,0 +1,83 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Outcome of preloading classes: the time taken for each class that was
+ * loaded and the failure for each class that could not be loaded
+ */
+public class PreloadResult {
+    private final int classCount;
+    private final Map<String, Long> timings = new ConcurrentHashMap<String, Long>();
+    private final Map<String, Throwable> failures = new ConcurrentHashMap<String, Throwable>();
+    private volatile long elapsedNanos;
+
+    PreloadResult(int classCount) {
+        this.classCount = classCount;
+    }
+
+    void loaded(String className, long nanos) {
+        timings.put( className, nanos );
+    }
+
+    void failed(String className, Throwable t) {
+        failures.put( className, t );
+    }
+
+    void completed(long nanos) {
+        elapsedNanos = nanos;
+    }
+
+    /**
+     * @return number of classes requested
+     */
+    public int getClassCount() {
+        return classCount;
+    }
+
+    /**
+     * @return time in nanoseconds taken by each loaded class
+     */
+    public Map<String, Long> getTimings() {
+        return Collections.unmodifiableMap( timings );
+    }
+
+    /**
+     * @return failure of each class that could not be loaded
+     */
+    public Map<String, Throwable> getFailures() {
+        return Collections.unmodifiableMap( failures );
+    }
+
+    /**
+     * @return wall clock time in nanoseconds of the whole preload
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "PreloadResult[classes=" + classCount + ", loaded=" + timings.size() + ", failed=" + failures.size()
+                + ", elapsedMillis=" + elapsedNanos / 1000000 + "]";
+    }
+}
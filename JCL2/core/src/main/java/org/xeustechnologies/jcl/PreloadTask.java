@@ -0,0 +1,163 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads a list of classes through the local loader of a JarClassLoader, one
+ * task per class on an executor. The task is the future of the result; it
+ * does not occupy an executor thread while waiting for the classes.
+ */
+class PreloadTask implements Future<PreloadResult> {
+    private final JarClassLoader loader;
+    private final List<String> classNames;
+    private final boolean resolve;
+    private final boolean initialize;
+
+    private final PreloadResult result;
+    private final AtomicInteger remaining;
+    private final CountDownLatch done = new CountDownLatch( 1 );
+    private final List<Future<?>> tasks;
+    private volatile boolean cancelled;
+    private long start;
+
+    PreloadTask(JarClassLoader loader, List<String> classNames, boolean resolve, boolean initialize) {
+        this.loader = loader;
+        this.classNames = classNames;
+        this.resolve = resolve;
+        this.initialize = initialize;
+        this.result = new PreloadResult( classNames.size() );
+        this.remaining = new AtomicInteger( classNames.size() );
+        this.tasks = new ArrayList<Future<?>>( classNames.size() );
+    }
+
+    PreloadTask start(ExecutorService executor) {
+        start = System.nanoTime();
+
+        if (classNames.isEmpty()) {
+            result.completed( 0 );
+            done.countDown();
+            return this;
+        }
+
+        synchronized (tasks) {
+            for (final String className : classNames) {
+                try {
+                    tasks.add( executor.submit( new Runnable() {
+                        public void run() {
+                            try {
+                                if (!cancelled) {
+                                    preload( className );
+                                }
+                            } finally {
+                                finished();
+                            }
+                        }
+                    } ) );
+                } catch (RejectedExecutionException e) {
+                    result.failed( className, e );
+                    finished();
+                }
+            }
+        }
+
+        return this;
+    }
+
+    private void preload(String className) {
+        long t = System.nanoTime();
+
+        try {
+            Class c = loader.getLocalLoader().loadClass( className, resolve );
+            if (c == null) {
+                result.failed( className, loader.classNotFound( className ) );
+                return;
+            }
+
+            if (initialize) {
+                Class.forName( className, true, loader );
+            }
+
+            result.loaded( className, System.nanoTime() - t );
+        } catch (Throwable e) {
+            result.failed( className, e );
+        }
+    }
+
+    private void finished() {
+        if (remaining.decrementAndGet() == 0) {
+            result.completed( System.nanoTime() - start );
+            done.countDown();
+        }
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (isDone()) {
+            return false;
+        }
+
+        cancelled = true;
+        synchronized (tasks) {
+            for (Future<?> f : tasks) {
+                f.cancel( mayInterruptIfRunning );
+            }
+        }
+        done.countDown();
+
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    public PreloadResult get() throws InterruptedException {
+        done.await();
+        return getResult();
+    }
+
+    public PreloadResult get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (!done.await( timeout, unit )) {
+            throw new TimeoutException();
+        }
+
+        return getResult();
+    }
+
+    private PreloadResult getResult() {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Jar entry whose bytes are shared with identical entries through the
+ * SharedResourceStore
+ */
+public class SharedJarEntry extends JclJarEntry {
+
+    private final SharedResourceStore store;
+    private final SharedResourceStore.Payload payload;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    public SharedJarEntry(SharedResourceStore store, byte[] content) {
+        this.store = store;
+        this.payload = store.intern( content );
+    }
+
+    @Override
+    public byte[] getResourceBytes() {
+        return payload.getBytes();
+    }
+
+    @Override
+    public void release() {
+        if (released.compareAndSet( false, true )) {
+            store.release( payload );
+        }
+    }
+}
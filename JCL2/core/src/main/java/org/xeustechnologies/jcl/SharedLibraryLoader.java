@@ -0,0 +1,106 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * ProxyClassLoader for a library jar that is shared by many JarClassLoaders.
+ * The library classes are defined once, in the library's own JarClassLoader,
+ * and every JarClassLoader that has the same jar among its sources delegates
+ * the library's packages to it instead of defining its own copies.
+ */
+public class SharedLibraryLoader extends ProxyClassLoader {
+
+    private final String digest;
+    private final JarClassLoader library;
+    private final Set<String> packages;
+
+    public SharedLibraryLoader(String digest, JarClassLoader library) {
+        this.digest = digest;
+        this.library = library;
+        this.order = 5;
+
+        Set<String> p = new HashSet<String>();
+        for (String name : library.classpathResources.getResourceNames()) {
+            int i = name.lastIndexOf( '/' );
+            if (i > 0 && !name.startsWith( "META-INF/" )) {
+                p.add( name.substring( 0, i ) );
+            }
+        }
+        packages = Collections.unmodifiableSet( p );
+    }
+
+    @Override
+    public Class loadClass(String className, boolean resolveIt) {
+        int i = className.lastIndexOf( '.' );
+        if (i < 0 || !packages.contains( className.substring( 0, i ).replace( '.', '/' ) )) {
+            return null;
+        }
+
+        return library.getLocalLoader().loadClass( className, resolveIt );
+    }
+
+    @Override
+    public InputStream loadResource(String name) {
+        if (!isLibraryResource( name )) {
+            return null;
+        }
+
+        return library.getLocalLoader().loadResource( name );
+    }
+
+    @Override
+    public URL findResource(String name) {
+        if (!isLibraryResource( name )) {
+            return null;
+        }
+
+        return library.getLocalLoader().findResource( name );
+    }
+
+    /**
+     * @return SHA-256 digest of the library jar
+     */
+    public String getDigest() {
+        return digest;
+    }
+
+    /**
+     * @return the JarClassLoader that defines the library classes
+     */
+    public JarClassLoader getLibrary() {
+        return library;
+    }
+
+    /**
+     * @return the library packages as paths, e.g. org/xeustechnologies/jcl
+     */
+    public Set<String> getPackages() {
+        return packages;
+    }
+
+    private boolean isLibraryResource(String name) {
+        int i = name.lastIndexOf( '/' );
+        return i > 0 && packages.contains( name.substring( 0, i ) );
+    }
+}
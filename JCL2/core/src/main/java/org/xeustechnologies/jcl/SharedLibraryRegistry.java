@@ -0,0 +1,211 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xeustechnologies.jcl.exception.JclException;
+import org.xeustechnologies.jcl.utils.Utils;
+
+/**
+ * Process wide registry of shared libraries, keyed by the SHA-256 digest of
+ * the library jar. When a JarClassLoader adds a local jar with the digest of a
+ * registered library, it delegates to the library's SharedLibraryLoader
+ * instead of loading the jar itself.
+ */
+public class SharedLibraryRegistry {
+    private static final SharedLibraryRegistry instance = new SharedLibraryRegistry();
+    private static final int MAX_DIGESTS = 1024;
+
+    private final ConcurrentMap<String, SharedLibraryLoader> libraries = new ConcurrentHashMap<String, SharedLibraryLoader>();
+    private final ConcurrentMap<String, FileDigest> digests = new ConcurrentHashMap<String, FileDigest>();
+
+    private final transient Logger logger = LoggerFactory.getLogger( SharedLibraryRegistry.class );
+
+    /**
+     * Returns the process wide registry
+     * 
+     * @return SharedLibraryRegistry
+     */
+    public static SharedLibraryRegistry getInstance() {
+        return instance;
+    }
+
+    /**
+     * Registers the jar as a shared library
+     * 
+     * @param jar
+     * @return SharedLibraryLoader
+     */
+    public SharedLibraryLoader register(File jar) {
+        return register( jar, null );
+    }
+
+    /**
+     * Registers the jar as a shared library, whose classes are defined by a
+     * JarClassLoader with the given parent
+     * 
+     * @param jar
+     * @param parent
+     * @return SharedLibraryLoader
+     */
+    public SharedLibraryLoader register(File jar, ClassLoader parent) {
+        String digest = digest( jar );
+
+        SharedLibraryLoader loader = libraries.get( digest );
+        if (loader != null) {
+            return loader;
+        }
+
+        JarClassLoader library = parent == null ? new JarClassLoader() : new JarClassLoader( parent );
+        library.add( jar.getAbsolutePath() );
+
+        loader = new SharedLibraryLoader( digest, library );
+        SharedLibraryLoader existing = libraries.putIfAbsent( digest, loader );
+        if (existing != null) {
+            library.release();
+            return existing;
+        }
+
+        logger.debug( "Registered shared library {} [{}]", jar, digest );
+
+        return loader;
+    }
+
+    /**
+     * Returns the shared library with the same content as the jar
+     * 
+     * @param jar
+     * @return SharedLibraryLoader or null if not registered
+     */
+    public SharedLibraryLoader lookup(File jar) {
+        if (libraries.isEmpty()) {
+            return null;
+        }
+
+        return libraries.get( digest( jar ) );
+    }
+
+    /**
+     * Removes the shared library. JarClassLoaders that already delegate to it
+     * keep doing so.
+     * 
+     * @param jar
+     * @return SharedLibraryLoader or null if not registered
+     */
+    public SharedLibraryLoader unregister(File jar) {
+        SharedLibraryLoader loader = libraries.remove( digest( jar ) );
+        digests.remove( jar.getAbsolutePath() );
+
+        // Only local jars looked up while libraries are registered are cached
+        if (libraries.isEmpty()) {
+            digests.clear();
+        }
+
+        return loader;
+    }
+
+    /**
+     * @return the registered shared libraries
+     */
+    public Collection<SharedLibraryLoader> getLibraries() {
+        return Collections.unmodifiableCollection( libraries.values() );
+    }
+
+    /**
+     * @return number of registered libraries
+     */
+    public int size() {
+        return libraries.size();
+    }
+
+    /**
+     * Returns the hex SHA-256 digest of the file. The digests of up to 1024
+     * files are cached by path, size and modification time.
+     * 
+     * @param file
+     * @return String
+     */
+    public String digest(File file) {
+        String path = file.getAbsolutePath();
+        long length = file.length();
+        long lastModified = file.lastModified();
+
+        FileDigest cached = digests.get( path );
+        if (cached != null && cached.length == length && cached.lastModified == lastModified) {
+            return cached.digest;
+        }
+
+        String digest = computeDigest( file );
+        if (cached != null || digests.size() < MAX_DIGESTS) {
+            digests.put( path, new FileDigest( length, lastModified, digest ) );
+        }
+
+        return digest;
+    }
+
+    private static String computeDigest(File file) {
+        InputStream in = null;
+        try {
+            MessageDigest md = MessageDigest.getInstance( "SHA-256" );
+            in = new FileInputStream( file );
+
+            byte[] b = new byte[8192];
+            int len = 0;
+            while (( len = in.read( b ) ) > 0) {
+                md.update( b, 0, len );
+            }
+
+            return Utils.toHexString( md.digest() );
+        } catch (IOException e) {
+            throw new JclException( e );
+        } catch (NoSuchAlgorithmException e) {
+            throw new JclException( e );
+        } finally {
+            if (in != null)
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    throw new JclException( e );
+                }
+        }
+    }
+
+    private static final class FileDigest {
+        private final long length;
+        private final long lastModified;
+        private final String digest;
+
+        FileDigest(long length, long lastModified, String digest) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+    }
+}
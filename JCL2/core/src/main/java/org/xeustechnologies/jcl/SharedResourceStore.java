@@ -0,0 +1,196 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xeustechnologies.jcl.exception.JclException;
+
+/**
+ * Process wide, content addressed store of resource bytes. Payloads are keyed
+ * by their SHA-256 digest and reference counted, so that identical entries
+ * loaded by any number of JarResources instances are held in memory once.
+ */
+public class SharedResourceStore {
+    private static final SharedResourceStore instance = new SharedResourceStore();
+
+    private static final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance( "SHA-256" );
+            } catch (NoSuchAlgorithmException e) {
+                throw new JclException( e );
+            }
+        }
+    };
+
+    private final ConcurrentMap<Key, Payload> payloads = new ConcurrentHashMap<Key, Payload>();
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicLong referencedBytes = new AtomicLong();
+
+    /**
+     * Returns the process wide store
+     * 
+     * @return SharedResourceStore
+     */
+    public static SharedResourceStore getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns the shared payload with the same content, adding the content if
+     * it is not in the store yet. Each call must be matched by a call to
+     * release.
+     * 
+     * @param content
+     * @return Payload
+     */
+    public Payload intern(byte[] content) {
+        Key key = new Key( digests.get().digest( content ) );
+
+        for (;;) {
+            Payload p = payloads.get( key );
+
+            if (p == null) {
+                p = new Payload( key, content );
+                if (payloads.putIfAbsent( key, p ) == null) {
+                    storedBytes.addAndGet( content.length );
+                    referencedBytes.addAndGet( content.length );
+                    return p;
+                }
+            } else if (Arrays.equals( p.bytes, content ) && p.retain()) {
+                referencedBytes.addAndGet( content.length );
+                return p;
+            } else if (p.refs.get() == 0) {
+                // being removed by a concurrent release
+                payloads.remove( key, p );
+            } else {
+                // digest collision, keep the content unshared
+                return new Payload( null, content );
+            }
+        }
+    }
+
+    /**
+     * Releases one reference to the payload, the payload is removed from the
+     * store when it is no longer referenced
+     * 
+     * @param payload
+     */
+    public void release(Payload payload) {
+        if (payload.key == null) {
+            return;
+        }
+
+        referencedBytes.addAndGet( -payload.bytes.length );
+        if (payload.refs.decrementAndGet() == 0) {
+            if (payloads.remove( payload.key, payload )) {
+                storedBytes.addAndGet( -payload.bytes.length );
+            }
+        }
+    }
+
+    /**
+     * @return number of unique payloads
+     */
+    public int getPayloadCount() {
+        return payloads.size();
+    }
+
+    /**
+     * @return bytes held by the unique payloads
+     */
+    public long getStoredBytes() {
+        return storedBytes.get();
+    }
+
+    /**
+     * @return bytes referenced by all the entries, as if nothing was shared
+     */
+    public long getReferencedBytes() {
+        return referencedBytes.get();
+    }
+
+    /**
+     * @return bytes saved by sharing identical payloads
+     */
+    public long getSavedBytes() {
+        return referencedBytes.get() - storedBytes.get();
+    }
+
+    /**
+     * Reference counted resource content
+     */
+    public static final class Payload {
+        private final Key key;
+        private final byte[] bytes;
+        private final AtomicInteger refs = new AtomicInteger( 1 );
+
+        private Payload(Key key, byte[] bytes) {
+            this.key = key;
+            this.bytes = bytes;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public int getReferenceCount() {
+            return refs.get();
+        }
+
+        private boolean retain() {
+            for (;;) {
+                int r = refs.get();
+                if (r == 0) {
+                    return false;
+                }
+                if (refs.compareAndSet( r, r + 1 )) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private static final class Key {
+        private final byte[] digest;
+        private final int hash;
+
+        Key(byte[] digest) {
+            this.digest = digest;
+            this.hash = Arrays.hashCode( digest );
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals( digest, ( (Key) o ).digest );
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl.exception;
+
+/**
+ * ClassNotFoundException without a stack trace, which is cheap to create for
+ * lookups that are expected to miss
+ */
+public class StacklessClassNotFoundException extends ClassNotFoundException {
+    /**
+     * Default serial id
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param className
+     */
+    public StacklessClassNotFoundException(String className) {
+        super( className );
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
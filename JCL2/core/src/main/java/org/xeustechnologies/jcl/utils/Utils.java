@@ -64,4 +64,20 @@ public class Utils {
         s.append( '$' );
         return ( s.toString() );
     }
+
+    /**
+     * Returns the lower case hexadecimal representation of the bytes
+     * 
+     * @param bytes
+     * @return String
+     */
+    public static String toHexString(byte[] bytes) {
+        StringBuilder sb = new StringBuilder( bytes.length * 2 );
+        for (byte b : bytes) {
+            sb.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) );
+            sb.append( Character.forDigit( b & 0xF, 16 ) );
+        }
+
+        return sb.toString();
+    }
 }
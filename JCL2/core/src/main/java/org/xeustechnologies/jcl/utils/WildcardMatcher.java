@@ -0,0 +1,189 @@
+/**
+ *
+ * Copyright 2015 Kamran Zafar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Matches names against a set of wildcard patterns, where '*' matches any
+ * sequence of characters and '?' matches a single character. Matching is
+ * ASCII case insensitive, like the regular expressions built by
+ * {@link Utils#wildcardToRegex(String)} and compiled with
+ * CASE_INSENSITIVE.
+ * 
+ * The patterns are compiled once. Literal names and prefixes, such as
+ * <code>com.sun.*</code>, are merged into a prefix trie that is walked once
+ * per name; other patterns are matched one by one. Matching does not
+ * allocate.
+ */
+public final class WildcardMatcher {
+    private final Node root = new Node();
+    private final char[][] patterns;
+    private final boolean empty;
+
+    public WildcardMatcher(String[] wildcards) {
+        List<char[]> others = new ArrayList<char[]>();
+
+        if (wildcards != null) {
+            for (String w : wildcards) {
+                int star = w.indexOf( '*' );
+                boolean prefix = star == w.length() - 1;
+
+                if (w.indexOf( '?' ) < 0 && ( star < 0 || prefix && w.indexOf( '*' ) == star )) {
+                    root.add( w, prefix ? w.length() - 1 : w.length(), prefix );
+                } else {
+                    others.add( toLowerCase( w ).toCharArray() );
+                }
+            }
+        }
+
+        patterns = others.toArray( new char[others.size()][] );
+        empty = root.isEmpty() && patterns.length == 0;
+    }
+
+    /**
+     * Checks if the name matches any of the patterns
+     * 
+     * @param name
+     * @return boolean
+     */
+    public boolean matches(String name) {
+        if (empty) {
+            return false;
+        }
+
+        if (root.matches( name )) {
+            return true;
+        }
+
+        for (char[] p : patterns) {
+            if (matches( p, name )) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Glob matching with backtracking to the last '*'
+     */
+    private static boolean matches(char[] pattern, String name) {
+        int p = 0, n = 0, star = -1, mark = 0;
+
+        while (n < name.length()) {
+            if (p < pattern.length && ( pattern[p] == '?' || pattern[p] == toLowerCase( name.charAt( n ) ) )) {
+                p++;
+                n++;
+            } else if (p < pattern.length && pattern[p] == '*') {
+                star = p++;
+                mark = n;
+            } else if (star >= 0) {
+                p = star + 1;
+                n = ++mark;
+            } else {
+                return false;
+            }
+        }
+
+        while (p < pattern.length && pattern[p] == '*') {
+            p++;
+        }
+
+        return p == pattern.length;
+    }
+
+    private static char toLowerCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) ( c + ( 'a' - 'A' ) ) : c;
+    }
+
+    private static String toLowerCase(String s) {
+        char[] c = s.toCharArray();
+        for (int i = 0; i < c.length; i++) {
+            if (c[i] != '*') {
+                c[i] = toLowerCase( c[i] );
+            }
+        }
+
+        return new String( c );
+    }
+
+    /**
+     * Trie node, children are kept in small parallel arrays
+     */
+    private static final class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private boolean terminal;
+        private boolean prefix;
+
+        void add(String s, int length, boolean isPrefix) {
+            Node node = this;
+            for (int i = 0; i < length; i++) {
+                node = node.child( toLowerCase( s.charAt( i ) ), true );
+            }
+
+            if (isPrefix) {
+                node.prefix = true;
+            } else {
+                node.terminal = true;
+            }
+        }
+
+        boolean matches(String name) {
+            Node node = this;
+            for (int i = 0; i < name.length(); i++) {
+                if (node.prefix) {
+                    return true;
+                }
+
+                node = node.child( toLowerCase( name.charAt( i ) ), false );
+                if (node == null) {
+                    return false;
+                }
+            }
+
+            return node.prefix || node.terminal;
+        }
+
+        boolean isEmpty() {
+            return keys.length == 0 && !terminal && !prefix;
+        }
+
+        private Node child(char c, boolean create) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+
+            if (!create) {
+                return null;
+            }
+
+            Node n = new Node();
+            keys = Arrays.copyOf( keys, keys.length + 1 );
+            children = Arrays.copyOf( children, children.length + 1 );
+            keys[keys.length - 1] = c;
+            children[children.length - 1] = n;
+            return n;
+        }
+    }
+}
@@ -3,6 +3,9 @@ package org.xeustechnologies.jcl;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.Test;
 
 /**
@@ -44,4 +47,38 @@ public class AbstractClassLoaderTest {
 		assertEquals(Configuration.isOsgiBootDelegationEnabled(), classLoader.getOsgiBootLoader().isEnabled());
 
 	}
+
+	@Test
+	public void checkLoadersAreSortedByOrder() {
+		AbstractClassLoader classLoader = new AbstractClassLoader() {
+		};
+		List<ProxyClassLoader> before = classLoader.getLoaders();
+
+		ProxyClassLoader loader = new DelegateProxyClassLoader(classLoader);
+		loader.setOrder(25);
+		classLoader.addLoader(loader);
+
+		List<ProxyClassLoader> loaders = classLoader.getLoaders();
+		assertEquals(Arrays.asList(classLoader.getCurrentLoader(), loader, classLoader.getParentLoader(),
+				classLoader.getThreadLoader(), classLoader.getSystemLoader()), loaders);
+		assertEquals("Snapshots should not change", 4, before.size());
+		assertEquals("The deprecated view should show the current loaders", loaders, classLoader.loaders);
+	}
+
+	@Test
+	public void checkOverriddenLoadClassOfParentIsUsed() throws ClassNotFoundException {
+		AbstractClassLoader parent = new AbstractClassLoader() {
+			@Override
+			public Class loadClass(String className, boolean resolveIt) throws ClassNotFoundException {
+				if (className.equals("org.xeustechnologies.jcl.Alias"))
+					return AbstractClassLoaderTest.class;
+
+				return super.loadClass(className, resolveIt);
+			}
+		};
+		AbstractClassLoader classLoader = new AbstractClassLoader(parent) {
+		};
+
+		assertEquals(AbstractClassLoaderTest.class, classLoader.loadClass("org.xeustechnologies.jcl.Alias"));
+	}
 }
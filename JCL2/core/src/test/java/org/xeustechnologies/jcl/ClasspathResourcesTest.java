@@ -1,15 +1,33 @@
 package org.xeustechnologies.jcl;
 
 import org.junit.Test;
+import org.xeustechnologies.jcl.exception.JclException;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Test handling resources inside and outside jars
@@ -40,10 +58,491 @@ public class ClasspathResourcesTest {
     assertEquals("testval in jar in subdirectory", props.getProperty("testkey"));
   }
 
+  @Test
+  public void testLazyLoadResourcesFromJar() throws Exception {
+    final String name = "lucene-core-5.3.1.jar";
+    ClasspathResources eager = getClasspathResources(name);
+
+    ClasspathResources lazy = new ClasspathResources();
+    lazy.setLazyLoading(true);
+    lazy = getClasspathResources(name, lazy);
+
+    assertTrue(lazy.jarEntryContents.get("org/apache/lucene/codecs/Codec.class") instanceof LazyJarEntry);
+    assertEquals(eager.getResourceURL("META-INF/services/org.apache.lucene.codecs.Codec"),
+        lazy.getResourceURL("META-INF/services/org.apache.lucene.codecs.Codec"));
+
+    assertSameResources(eager, lazy);
+
+    lazy.release();
+  }
+
+  @Test
+  public void testCachedJarIndex() throws Exception {
+    final String name = "lucene-core-5.3.1.jar";
+    ClasspathResources eager = getClasspathResources(name);
+
+    File dir = File.createTempFile("jcl-index", "");
+    dir.delete();
+    JarIndexCache cache = new JarIndexCache(dir);
+    File jar = new File(ClassLoader.getSystemClassLoader().getResource(name).toURI());
+
+    ClasspathResources first = new ClasspathResources();
+    first.setLazyLoading(true);
+    first.setIndexCache(cache);
+    first = getClasspathResources(name, first);
+
+    File index = cache.indexFile(jar);
+    index.deleteOnExit();
+    dir.deleteOnExit();
+    assertTrue(index.isFile());
+    long modified = index.lastModified();
+
+    String baseUrl = "jar:" + jar.toURI() + "!/";
+    assertEquals(first.getResourceNames().size(), cache.read(jar, baseUrl).size());
+    assertNull(cache.read(jar, "jar:file:/other.jar!/"));
+
+    ClasspathResources second = new ClasspathResources();
+    second.setLazyLoading(true);
+    second.setIndexCache(cache);
+    second = getClasspathResources(name, second);
+
+    assertEquals(modified, index.lastModified());
+    assertSameResources(eager, second);
+
+    first.release();
+    second.release();
+  }
+
+  @Test
+  public void testMemoryMappedResourcesFromJar() throws Exception {
+    final String name = "lucene-core-5.3.1.jar";
+    ClasspathResources eager = getClasspathResources(name);
+
+    ClasspathResources mapped = new ClasspathResources();
+    mapped.setMemoryMapped(true);
+    mapped = getClasspathResources(name, mapped);
+
+    assertTrue(mapped.jarEntryContents.get("org/apache/lucene/codecs/Codec.class") instanceof MappedJarEntry);
+    assertSameResources(eager, mapped);
+
+    Properties props = new Properties();
+    props.load(mapped.getResourceAsStream("META-INF/services/org.apache.lucene.codecs.Codec"));
+    assertFalse(props.isEmpty());
+  }
+
+  @Test
+  public void testMemoryMappedStoredEntries() throws Exception {
+    File jar = File.createTempFile("jcl-stored", ".jar");
+    jar.deleteOnExit();
+
+    byte[] content = "testkey=stored in jar".getBytes("UTF-8");
+    CRC32 crc = new CRC32();
+    crc.update(content);
+
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+    ZipEntry entry = new ZipEntry("test/stored.properties");
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(content.length);
+    entry.setCrc(crc.getValue());
+    out.putNextEntry(entry);
+    out.write(content);
+    out.closeEntry();
+    out.close();
+
+    ClasspathResources mapped = new ClasspathResources();
+    mapped.setMemoryMapped(true);
+    mapped.loadResource(jar.getAbsolutePath());
+
+    ByteBuffer buffer = mapped.getResourceBuffer("test/stored.properties");
+    assertTrue(buffer.isDirect());
+    assertTrue(buffer.isReadOnly());
+    assertArrayEquals(content, mapped.getResource("test/stored.properties"));
+
+    Properties props = new Properties();
+    props.load(mapped.getResourceAsStream("test/stored.properties"));
+    assertEquals("stored in jar", props.getProperty("testkey"));
+  }
+
+  @Test
+  public void testCrcIsChecked() throws Exception {
+    File jar = File.createTempFile("jcl-crc", ".jar");
+    jar.deleteOnExit();
+
+    byte[] content = "testkey=stored in jar".getBytes("UTF-8");
+    CRC32 crc = new CRC32();
+    crc.update(content);
+
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+    ZipEntry entry = new ZipEntry("test/stored.properties");
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(content.length);
+    entry.setCrc(crc.getValue());
+    out.putNextEntry(entry);
+    out.write(content);
+    out.closeEntry();
+    out.putNextEntry(new ZipEntry("test/deflated.properties"));
+    out.write("testkey=deflated in jar".getBytes("UTF-8"));
+    out.closeEntry();
+    out.close();
+
+    // Change the stored content, and the CRC-32 of the deflated entry in the
+    // central directory
+    byte[] bytes = Files.readAllBytes(jar.toPath());
+    String text = new String(bytes, "ISO-8859-1");
+    bytes[text.indexOf("testkey=stored")] = 'T';
+    int header = text.lastIndexOf("test/deflated.properties") - 46;
+    bytes[header + 16] ^= 1;
+    Files.write(jar.toPath(), bytes);
+
+    ClasspathResources lazy = new ClasspathResources();
+    lazy.setLazyLoading(true);
+    lazy.loadResource(jar.getAbsolutePath());
+    assertCrcMismatch(lazy, "test/stored.properties");
+    assertCrcMismatch(lazy, "test/deflated.properties");
+
+    ClasspathResources mapped = new ClasspathResources();
+    mapped.setMemoryMapped(true);
+    mapped.loadResource(jar.getAbsolutePath());
+    assertCrcMismatch(mapped, "test/stored.properties");
+    assertCrcMismatch(mapped, "test/deflated.properties");
+
+    try {
+      Properties props = new Properties();
+      props.load(mapped.getResourceAsStream("test/deflated.properties"));
+      fail("CRC-32 mismatch expected");
+    } catch (ZipException e) {
+      // expected
+    }
+  }
+
+  private void assertCrcMismatch(ClasspathResources resources, String name) {
+    try {
+      resources.getResource(name);
+      fail("CRC-32 mismatch expected");
+    } catch (JclException e) {
+      assertTrue(e.getCause() instanceof ZipException);
+    }
+  }
+
+  @Test
+  public void testParallelInflationOfJar() throws Exception {
+    final String name = "lucene-core-5.3.1.jar";
+    ClasspathResources eager = getClasspathResources(name);
+
+    ClasspathResources parallel = new ClasspathResources();
+    parallel.setParallelInflation(true);
+    parallel.setParallelism(4);
+    parallel = getClasspathResources(name, parallel);
+
+    assertEquals(JclJarEntry.class, parallel.jarEntryContents.get("org/apache/lucene/codecs/Codec.class").getClass());
+    assertEquals(eager.getResourceURL("META-INF/services/org.apache.lucene.codecs.Codec"),
+        parallel.getResourceURL("META-INF/services/org.apache.lucene.codecs.Codec"));
+    assertSameResources(eager, parallel);
+  }
+
+  @Test
+  public void testJarIsAddedAtomically() throws Exception {
+    final String name = "lucene-core-5.3.1.jar";
+    ClasspathResources eager = getClasspathResources(name);
+    final String[] names = eager.getResourceNames().toArray(new String[0]);
+
+    final ClasspathResources resources = new ClasspathResources();
+    final AtomicBoolean done = new AtomicBoolean();
+    final AtomicInteger partial = new AtomicInteger();
+
+    Thread reader = new Thread() {
+      public void run() {
+        while (!done.get()) {
+          if (resources.getResource(names[names.length - 1]) != null) {
+            for (String n : names) {
+              if (resources.getResource(n) == null) {
+                partial.incrementAndGet();
+              }
+            }
+            return;
+          }
+        }
+      }
+    };
+    reader.start();
+    getClasspathResources(name, resources);
+    done.set(true);
+    reader.join();
+
+    assertEquals(0, partial.get());
+    assertSameResources(eager, resources);
+  }
+
+  @Test
+  public void testCollidingJarIsNotAdded() throws Exception {
+    File jar = File.createTempFile("jcl-colliding", ".jar");
+    jar.deleteOnExit();
+
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+    out.putNextEntry(new ZipEntry("test/new.properties"));
+    out.write("testkey=new".getBytes("UTF-8"));
+    out.closeEntry();
+    out.putNextEntry(new ZipEntry("test.properties"));
+    out.write("testkey=colliding".getBytes("UTF-8"));
+    out.closeEntry();
+    out.close();
+
+    ClasspathResources resources = getClasspathResources("test.jar");
+    resources.setCollisionAllowed(false);
+    try {
+      resources.loadResource(jar.getAbsolutePath());
+      fail("Collision expected");
+    } catch (JclException e) {
+      // expected
+    }
+
+    assertNull(resources.getResource("test/new.properties"));
+    assertNotNull(resources.getResource("test.properties"));
+  }
+
+  @Test
+  public void testCollidingJarReleasesStagedEntries() throws Exception {
+    File jar = File.createTempFile("jcl-colliding", ".jar");
+    jar.deleteOnExit();
+
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+    out.putNextEntry(new ZipEntry("test/before.properties"));
+    out.write("testkey=staged before the collision".getBytes("UTF-8"));
+    out.closeEntry();
+    out.putNextEntry(new ZipEntry("test.properties"));
+    out.write("testkey=colliding and staged".getBytes("UTF-8"));
+    out.closeEntry();
+    out.putNextEntry(new ZipEntry("test/after.properties"));
+    out.write("testkey=staged after the collision".getBytes("UTF-8"));
+    out.closeEntry();
+    out.close();
+
+    ClasspathResources resources = new ClasspathResources();
+    resources.setDeduplicate(true);
+    resources = getClasspathResources("test.jar", resources);
+    resources.setCollisionAllowed(false);
+
+    SharedResourceStore store = SharedResourceStore.getInstance();
+    long stored = store.getStoredBytes();
+    try {
+      resources.loadResource(jar.getAbsolutePath());
+      fail("Collision expected");
+    } catch (JclException e) {
+      // expected
+    }
+
+    assertNull(resources.getResource("test/after.properties"));
+    assertEquals(stored, store.getStoredBytes());
+    resources.release();
+  }
+
+  @Test
+  public void testFailedParallelInflationReleasesEntries() throws Exception {
+    File jar = File.createTempFile("jcl-corrupt", ".jar");
+    jar.deleteOnExit();
+
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+    for (int i = 0; i < 8; i++) {
+      out.putNextEntry(new ZipEntry("test/inflated" + i + ".properties"));
+      out.write(("testkey=inflated before the failure " + i).getBytes("UTF-8"));
+      out.closeEntry();
+    }
+    out.putNextEntry(new ZipEntry("test/corrupt.properties"));
+    out.write("testkey=corrupt".getBytes("UTF-8"));
+    out.closeEntry();
+    out.close();
+
+    // Invalid block type at the start of the deflated data of the last entry
+    byte[] bytes = Files.readAllBytes(jar.toPath());
+    int header = new String(bytes, "ISO-8859-1").indexOf("test/corrupt.properties") - 30;
+    int data = header + 30 + (bytes[header + 26] & 0xFF) + (bytes[header + 28] & 0xFF);
+    bytes[data] = (byte) 0xFF;
+    Files.write(jar.toPath(), bytes);
+
+    ClasspathResources resources = new ClasspathResources();
+    resources.setDeduplicate(true);
+    resources.setParallelInflation(true);
+    resources.setParallelism(4);
+
+    SharedResourceStore store = SharedResourceStore.getInstance();
+    long stored = store.getStoredBytes();
+    try {
+      resources.loadResource(jar.getAbsolutePath());
+      fail("Invalid deflated data expected");
+    } catch (JclException e) {
+      // expected
+    }
+
+    assertNull(resources.getResource("test/inflated0.properties"));
+    assertEquals(stored, store.getStoredBytes());
+  }
+
+  @Test
+  public void testOffHeapResourcesFromStream() throws Exception {
+    final String name = "lucene-core-5.3.1.jar";
+    ClasspathResources eager = getClasspathResources(name);
+
+    ClasspathResources offHeap = new ClasspathResources();
+    offHeap.setOffHeap(true);
+    offHeap.loadJar(null, ClassLoader.getSystemClassLoader().getResourceAsStream(name));
+
+    assertTrue(offHeap.jarEntryContents.get("org/apache/lucene/codecs/Codec.class") instanceof ArenaJarEntry);
+    assertTrue(offHeap.getResourceBuffer("org/apache/lucene/codecs/Codec.class").isDirect());
+    assertSameResources(eager, offHeap);
+
+    long used = 0;
+    for (byte[] bytes : eager.getResources().values()) {
+      used += bytes.length;
+    }
+    OffHeapArena arena = offHeap.getArena();
+    assertEquals(used, arena.getUsedBytes());
+    assertTrue(arena.getAllocatedBytes() >= used);
+
+    int length = offHeap.getResource("org/apache/lucene/codecs/Codec.class").length;
+    offHeap.unload("org/apache/lucene/codecs/Codec.class");
+    assertEquals(used - length, arena.getUsedBytes());
+
+    // Buffers handed out before the release stay readable
+    ByteBuffer held = offHeap.getResourceBuffer("org/apache/lucene/LucenePackage.class");
+    byte[] expected = eager.getResource("org/apache/lucene/LucenePackage.class");
+
+    offHeap.release();
+    byte[] read = new byte[held.remaining()];
+    held.get(read);
+    assertArrayEquals(expected, read);
+    assertTrue(arena.isReleased());
+    assertEquals(0, arena.getUsedBytes());
+    assertEquals(0, arena.getAllocatedBytes());
+  }
+
+  @Test
+  public void testCompressedResourcesFromStream() throws Exception {
+    final String name = "lucene-core-5.3.1.jar";
+    ClasspathResources eager = getClasspathResources(name);
+
+    ClasspathResources compressed = new ClasspathResources();
+    compressed.setKeepCompressed(true);
+    compressed.loadJar(null, ClassLoader.getSystemClassLoader().getResourceAsStream(name));
+
+    assertTrue(compressed.jarEntryContents.get("org/apache/lucene/codecs/Codec.class") instanceof CompressedJarEntry);
+    assertSameResources(eager, compressed);
+
+    CompressionStats stats = compressed.getCompressionStats();
+    assertEquals(eager.getResources().size(), stats.getEntryCount());
+    assertTrue(stats.getCompressionRatio() > 1);
+    assertTrue(stats.getInflateCount() > 0);
+    assertTrue(InflaterPool.getInstance().getIdleCount() > 0);
+
+    compressed.release();
+    assertEquals(0, stats.getEntryCount());
+    assertEquals(0, stats.getCompressedBytes());
+  }
+
+  @Test
+  public void testDeduplicatedResources() throws Exception {
+    final String name = "lucene-core-5.3.1.jar";
+    ClasspathResources eager = getClasspathResources(name);
+    SharedResourceStore store = SharedResourceStore.getInstance();
+    long stored = store.getStoredBytes();
+
+    ClasspathResources first = new ClasspathResources();
+    first.setDeduplicate(true);
+    first = getClasspathResources(name, first);
+    ClasspathResources second = new ClasspathResources();
+    second.setDeduplicate(true);
+    second = getClasspathResources(name, second);
+
+    assertTrue(first.jarEntryContents.get("org/apache/lucene/codecs/Codec.class") instanceof SharedJarEntry);
+    assertSameResources(eager, second);
+    assertSame(first.getResource("org/apache/lucene/codecs/Codec.class"),
+        second.getResource("org/apache/lucene/codecs/Codec.class"));
+    assertTrue(store.getSavedBytes() > 0);
+
+    first.release();
+    assertSameResources(eager, second);
+    second.release();
+    assertEquals(stored, store.getStoredBytes());
+  }
+
+  @Test
+  public void testParallelLoadingOfLibraryFolder() throws Exception {
+    File lib = File.createTempFile("jcl-lib", "");
+    lib.delete();
+    lib.mkdir();
+    lib.deleteOnExit();
+
+    copyToFolder("lucene-core-5.3.1.jar", "lucene-core-5.3.1.jar", lib);
+    copyToFolder("test.jar", "test.jar", lib);
+    copyToFolder("test/test.properties", "test.properties", lib);
+    // Colliding entries, the first jar in the folder walk wins
+    copyToFolder("test.jar", "test-copy.jar", lib);
+
+    ClasspathResources sequential = new ClasspathResources();
+    sequential.setParallelism(1);
+    sequential.loadResource(lib.getAbsolutePath());
+
+    ClasspathResources parallel = new ClasspathResources();
+    parallel.setParallelism(4);
+    parallel.loadResource(lib.getAbsolutePath());
+
+    assertSameResources(sequential, parallel);
+    for (String name : sequential.getResourceNames()) {
+      assertEquals(name, sequential.getResourceURL(name), parallel.getResourceURL(name));
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testParallelInflationInParallelFolderLoad() throws Exception {
+    File lib = File.createTempFile("jcl-lib", "");
+    lib.delete();
+    lib.mkdir();
+    lib.deleteOnExit();
+
+    copyToFolder("lucene-core-5.3.1.jar", "lucene-core-5.3.1.jar", lib);
+    copyToFolder("test.jar", "test.jar", lib);
+
+    ClasspathResources sequential = new ClasspathResources();
+    sequential.setParallelism(1);
+    sequential.loadResource(lib.getAbsolutePath());
+
+    // The jars are inflated on the thread loading them, a nested wait on the
+    // single thread executor would never return
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      ClasspathResources parallel = new ClasspathResources();
+      parallel.setParallelism(2);
+      parallel.setParallelInflation(true);
+      parallel.setExecutor(executor);
+      parallel.loadResource(lib.getAbsolutePath());
+
+      assertSameResources(sequential, parallel);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private void copyToFolder(String name, String fileName, File folder) throws Exception {
+    File file = new File(folder, fileName);
+    file.deleteOnExit();
+    Files.copy(new File(ClassLoader.getSystemClassLoader().getResource(name).toURI()).toPath(), file.toPath());
+  }
+
+  private void assertSameResources(ClasspathResources expectedResources, ClasspathResources actualResources) {
+    Map<String, byte[]> expected = expectedResources.getResources();
+    Map<String, byte[]> actual = actualResources.getResources();
+    assertEquals(expected.keySet(), actual.keySet());
+    for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+      assertArrayEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+    }
+  }
+
   private ClasspathResources getClasspathResources(String name) {
+    return getClasspathResources(name, new ClasspathResources());
+  }
+
+  private ClasspathResources getClasspathResources(String name, ClasspathResources jarResources) {
     final URL testJar = ClassLoader.getSystemClassLoader().getResource(name);
     assertNotNull("Could not find file or directory named '" + name + "'. It should be in the test resources directory", testJar);
-    ClasspathResources jarResources = new ClasspathResources();
     jarResources.loadResource(testJar);
     return jarResources;
   }
@@ -13,17 +13,43 @@ import org.xeustechnologies.jcl.context.JclContext;
 import org.xeustechnologies.jcl.context.JclContextLoader;
 import org.xeustechnologies.jcl.context.XmlContextLoader;
 import org.xeustechnologies.jcl.exception.JclContextException;
+import org.xeustechnologies.jcl.exception.JclException;
 import org.xeustechnologies.jcl.proxy.CglibProxyProvider;
+import org.xeustechnologies.jcl.proxy.JdkProxyProvider;
 import org.xeustechnologies.jcl.proxy.ProxyProviderFactory;
 import org.xeustechnologies.jcl.test.TestInterface;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.lang.management.ThreadMXBean;
 import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 @SuppressWarnings("all")
 @RunWith(JUnit4.class)
@@ -102,6 +128,615 @@ public class LoadTest extends TestCase {
         fis.close();
     }
 
+    @Test
+    public void testWithMemoryMappedJar() throws InstantiationException, IllegalAccessException,
+            ClassNotFoundException, IOException {
+        System.setProperty( "jcl.memoryMapped", "true" );
+        try {
+            JarClassLoader jc = new JarClassLoader( new String[] { "./target/test-jcl.jar" } );
+            Object testObj = jc.loadClass( "org.xeustechnologies.jcl.test.Test" ).newInstance();
+            assertNotNull( testObj );
+            assertEquals( jc, testObj.getClass().getClassLoader() );
+            assertNotNull( jc.getResourceAsStream( "test/test.properties" ) );
+
+            // Deflated entries are streamed to the end
+            String name = "org/xeustechnologies/jcl/test/Test.class";
+            JarFile jar = new JarFile( "./target/test-jcl.jar" );
+            try {
+                assertTrue( Arrays.equals( readAll( jar.getInputStream( jar.getEntry( name ) ) ),
+                        readAll( jc.getResourceAsStream( name ) ) ) );
+            } finally {
+                jar.close();
+            }
+        } finally {
+            System.clearProperty( "jcl.memoryMapped" );
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[256];
+            for (int n; ( n = in.read( buf ) ) >= 0;) {
+                out.write( buf, 0, n );
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testSharedLibrary() throws ClassNotFoundException {
+        File jar = new File( "./target/test-jcl.jar" );
+        SharedLibraryLoader shared = SharedLibraryRegistry.getInstance().register( jar );
+        try {
+            assertSame( shared, SharedLibraryRegistry.getInstance().register( jar ) );
+
+            JarClassLoader jc1 = new JarClassLoader( new String[] { "./target/test-jcl.jar" } );
+            JarClassLoader jc2 = new JarClassLoader( new String[] { "./target/test-jcl.jar" } );
+
+            Class c1 = jc1.loadClass( "org.xeustechnologies.jcl.test.Test" );
+            Class c2 = jc2.loadClass( "org.xeustechnologies.jcl.test.Test" );
+
+            assertSame( c1, c2 );
+            assertEquals( shared.getLibrary(), c1.getClassLoader() );
+            assertTrue( jc1.getLoadedResources().isEmpty() );
+            assertNotNull( jc2.getResourceAsStream( "test/test.properties" ) );
+        } finally {
+            SharedLibraryRegistry.getInstance().unregister( jar );
+        }
+    }
+
+    @Test
+    public void testConcurrentClassLoading() throws Exception {
+        final JarClassLoader jc = new JarClassLoader();
+        jc.add( ClassLoader.getSystemClassLoader().getResource( "lucene-core-5.3.1.jar" ) );
+
+        final List<String> classNames = new ArrayList<String>();
+        for (String name : jc.getLoadedResources().keySet()) {
+            if (name.endsWith( ".class" ) && classNames.size() < 500) {
+                classNames.add( name.substring( 0, name.length() - 6 ).replace( '/', '.' ) );
+            }
+        }
+
+        final int threads = 8;
+        final CyclicBarrier barrier = new CyclicBarrier( threads );
+        final ConcurrentMap<String, Class> loaded = new ConcurrentHashMap<String, Class>();
+        final List<Throwable> errors = Collections.synchronizedList( new ArrayList<Throwable>() );
+
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final List<String> names = new ArrayList<String>( classNames );
+            Collections.shuffle( names, new Random( i ) );
+
+            workers[i] = new Thread() {
+                public void run() {
+                    try {
+                        barrier.await();
+                        for (String name : names) {
+                            Class c = jc.loadClass( name );
+                            Class previous = loaded.putIfAbsent( name, c );
+                            if (previous != null && previous != c) {
+                                throw new AssertionFailedError( "Class defined twice: " + name );
+                            }
+                        }
+                    } catch (Throwable t) {
+                        errors.add( t );
+                    }
+                }
+            };
+            workers[i].start();
+        }
+
+        for (Thread t : workers) {
+            t.join();
+        }
+
+        assertEquals( errors.toString(), 0, errors.size() );
+        assertEquals( classNames.size(), loaded.size() );
+        for (Class c : loaded.values()) {
+            assertEquals( jc, c.getClassLoader() );
+        }
+    }
+
+    @Test
+    public void testOverriddenClassBytes() throws ClassNotFoundException {
+        final ClasspathResources source = new ClasspathResources();
+        source.loadResource( "./target/test-jcl.jar" );
+
+        // The class content is read by the subclass, not from added sources
+        JarClassLoader jc = new JarClassLoader() {
+            @Override
+            protected byte[] loadClassBytes(String className) {
+                return source.getResource( className.replace( '.', '/' ) + ".class" );
+            }
+        };
+
+        Class c = jc.loadClass( "org.xeustechnologies.jcl.test.Test" );
+        assertEquals( jc, c.getClassLoader() );
+    }
+
+    @Test
+    public void testNegativeLookupCache() throws ClassNotFoundException {
+        JarClassLoader jc = new JarClassLoader();
+        jc.getClassMissCache().setEnabled( true );
+        jc.getResourceMissCache().setEnabled( true );
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                jc.loadClass( "org.apache.lucene.codecs.Codec" );
+                fail( "Class should not be found" );
+            } catch (ClassNotFoundException e) {
+                // expected
+            }
+            assertNull( jc.getResource( "META-INF/services/org.apache.lucene.codecs.Codec" ) );
+        }
+
+        assertEquals( 1, jc.getClassMissCache().getHitCount() );
+        assertEquals( 0.5, jc.getClassMissCache().getHitRate(), 0 );
+        assertEquals( 1, jc.getResourceMissCache().getHitCount() );
+
+        // Misses depend on the calling thread while the context loader is used
+        jc.getThreadLoader().setEnabled( true );
+        assertEquals( 0, jc.getClassMissCache().size() );
+        assertNull( jc.getResource( "META-INF/services/org.apache.lucene.codecs.Codec" ) );
+        assertEquals( 0, jc.getResourceMissCache().size() );
+        jc.getThreadLoader().setEnabled( false );
+
+        jc.add( ClassLoader.getSystemClassLoader().getResource( "lucene-core-5.3.1.jar" ) );
+
+        assertEquals( 0, jc.getClassMissCache().size() );
+        assertNotNull( jc.loadClass( "org.apache.lucene.codecs.Codec" ) );
+        assertNotNull( jc.getResource( "META-INF/services/org.apache.lucene.codecs.Codec" ) );
+    }
+
+    @Test
+    public void testPackageRouting() throws ClassNotFoundException {
+        final AtomicInteger probes = new AtomicInteger();
+        ProxyClassLoader probe = new ProxyClassLoader() {
+            public Class loadClass(String className, boolean resolveIt) {
+                if (className.startsWith( "org.apache.lucene.codecs." ))
+                    probes.incrementAndGet();
+                return null;
+            }
+
+            public InputStream loadResource(String name) {
+                return null;
+            }
+
+            public URL findResource(String name) {
+                return null;
+            }
+        };
+        probe.setOrder( 1 );
+
+        JarClassLoader jc = new JarClassLoader();
+        jc.setPackageRouting( true );
+        jc.addLoader( probe );
+        jc.add( ClassLoader.getSystemClassLoader().getResource( "lucene-core-5.3.1.jar" ) );
+
+        jc.loadClass( "org.apache.lucene.codecs.Codec" );
+        assertEquals( 1, probes.get() );
+        assertEquals( jc.getLocalLoader(), jc.getRoutes().get( "org.apache.lucene.codecs" ) );
+
+        jc.loadClass( "org.apache.lucene.codecs.PostingsFormat" );
+        assertEquals( 1, probes.get() );
+
+        jc.add( "./target/test-jcl.jar" );
+        assertTrue( jc.getRoutes().isEmpty() );
+        jc.loadClass( "org.apache.lucene.codecs.DocValuesFormat" );
+        assertEquals( 2, probes.get() );
+    }
+
+    @Test
+    public void testExceptionFreeLookup() throws ClassNotFoundException {
+        JarClassLoader jc = new JarClassLoader( new String[] { "./target/test-jcl.jar" } );
+        assertNull( jc.findClassOrNull( "org.xeustechnologies.jcl.test.Missing", false ) );
+        assertNotNull( jc.findClassOrNull( "org.xeustechnologies.jcl.test.Test", false ) );
+
+        jc.setStacklessExceptions( true );
+        try {
+            jc.loadClass( "org.xeustechnologies.jcl.test.Missing" );
+            fail( "Class should not be found" );
+        } catch (ClassNotFoundException e) {
+            assertEquals( "org.xeustechnologies.jcl.test.Missing", e.getMessage() );
+            assertEquals( 0, e.getStackTrace().length );
+        }
+
+        JarClassLoader child = new JarClassLoader( jc );
+        child.setProbeClassResources( true );
+        assertNull( child.findClassOrNull( "org.xeustechnologies.jcl.test.Missing", false ) );
+        assertNotNull( child.findClassOrNull( "java.lang.String", false ) );
+        assertNotNull( child.findClassOrNull( "org.xeustechnologies.jcl.test.Test", false ) );
+    }
+
+    @Test
+    public void testPreload() throws Exception {
+        JarClassLoader jc = new JarClassLoader( new String[] { "./target/test-jcl.jar" } );
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+
+        try {
+            PreloadResult result = jc.preload(
+                    Arrays.asList( "org.xeustechnologies.jcl.test.*", "org.xeustechnologies.jcl.test.Missing" ),
+                    true, false, executor ).get();
+
+            assertTrue( result.getTimings().containsKey( "org.xeustechnologies.jcl.test.Test" ) );
+            assertTrue( result.getFailures().get( "org.xeustechnologies.jcl.test.Missing" ) instanceof ClassNotFoundException );
+            assertEquals( result.getClassCount(), result.getTimings().size() + result.getFailures().size() );
+            assertEquals( jc, jc.getLoadedClasses().get( "org.xeustechnologies.jcl.test.Test" ).getClassLoader() );
+
+            result = jc.preloadSource( "./target/test-jcl.jar", true, true, executor ).get();
+            assertTrue( result.getFailures().isEmpty() );
+            assertEquals( result.getClassCount(), result.getTimings().size() );
+            assertEquals( result.getClassCount(), jc.getLoadedClasses().size() );
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testLoadingProfile() throws Exception {
+        JarClassLoader jc = new JarClassLoader( new String[] { "./target/test-jcl.jar" } );
+        jc.startRecording();
+        jc.loadClass( "org.xeustechnologies.jcl.test.Test" );
+        jc.loadClass( "java.lang.String" );
+        assertNotNull( jc.getResource( "test/test.properties" ) );
+        LoadingProfile profile = jc.stopRecording();
+
+        // Supertypes are loaded, and recorded, before the class itself
+        List<LoadingProfile.Entry> entries = profile.getEntries();
+        LoadingProfile.Entry test = null;
+        for (LoadingProfile.Entry e : entries) {
+            if (e.getName().equals( "org.xeustechnologies.jcl.test.Test" )) {
+                test = e;
+            }
+        }
+        assertEquals( jc.getLocalLoader().getClass().getName(), test.getLoaderClass() );
+        assertEquals( jc.getLocalLoader().getOrder(), test.getLoaderOrder() );
+
+        LoadingProfile.Entry last = entries.get( entries.size() - 1 );
+        assertEquals( LoadingProfile.Kind.RESOURCE, last.getKind() );
+        assertEquals( "test/test.properties", last.getName() );
+
+        File file = File.createTempFile( "jcl", ".profile" );
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            profile.write( file );
+            profile = LoadingProfile.read( file );
+            assertEquals( entries.size(), profile.size() );
+
+            JarClassLoader replayed = new JarClassLoader( new String[] { "./target/test-jcl.jar" } );
+            PreloadResult result = replayed.replay( profile, executor ).get();
+
+            assertTrue( result.getFailures().toString(), result.getFailures().isEmpty() );
+            assertEquals( entries.size(), result.getTimings().size() );
+            assertTrue( replayed.getLoadedClasses().containsKey( "org.xeustechnologies.jcl.test.Test" ) );
+        } finally {
+            executor.shutdown();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testLoadingProfileOfLoadersWithSameOrder() throws Exception {
+        File jar = File.createTempFile( "jcl-profile", ".jar" );
+        jar.deleteOnExit();
+        ZipOutputStream out = new ZipOutputStream( new FileOutputStream( jar ) );
+        out.putNextEntry( new ZipEntry( "jcl/profile.properties" ) );
+        out.write( "profile=true".getBytes( "UTF-8" ) );
+        out.closeEntry();
+        out.close();
+
+        JarClassLoader jc = new JarClassLoader();
+        jc.addLoader( new DelegateProxyClassLoader( new JarClassLoader() ) );
+        jc.addLoader( new DelegateProxyClassLoader( new JarClassLoader( new String[] { jar.getAbsolutePath() } ) ) );
+
+        jc.startRecording();
+        assertNotNull( jc.getResource( "jcl/profile.properties" ) );
+        LoadingProfile profile = jc.stopRecording();
+
+        File file = File.createTempFile( "jcl", ".profile" );
+        try {
+            profile.write( file );
+            profile = LoadingProfile.read( file );
+        } finally {
+            file.delete();
+        }
+
+        // Told apart by their index among the loaders of the same type and order
+        LoadingProfile.Entry entry = profile.getEntries().get( 0 );
+        assertEquals( DelegateProxyClassLoader.class.getName(), entry.getLoaderClass() );
+        assertEquals( 1, entry.getLoaderIndex() );
+
+        JarClassLoader replayed = new JarClassLoader();
+        replayed.addLoader( new DelegateProxyClassLoader( new JarClassLoader() ) );
+        replayed.addLoader( new DelegateProxyClassLoader( new JarClassLoader( new String[] { jar.getAbsolutePath() } ) ) );
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            PreloadResult result = replayed.replay( profile, executor ).get();
+            assertTrue( result.getFailures().toString(), result.getFailures().isEmpty() );
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testLoadingProfileSkipsMisses() throws Exception {
+        JarClassLoader jc = new JarClassLoader( new String[] { "./target/test-jcl.jar" } );
+        jc.getThreadLoader().setEnabled( true );
+        jc.startRecording();
+
+        try {
+            jc.loadClass( "org.xeustechnologies.jcl.test.Missing" );
+            fail( "Expected ClassNotFoundException" );
+        } catch (ClassNotFoundException e) {
+            // expected
+        }
+        assertNull( jc.getResource( "test/missing.properties" ) );
+        assertNull( jc.getResourceAsStream( "test/missing.properties" ) );
+
+        // Misses are not recorded, whether or not they can be cached
+        jc.getThreadLoader().setEnabled( false );
+        assertNull( jc.getResource( "test/missing.properties" ) );
+
+        assertEquals( 0, jc.stopRecording().size() );
+    }
+
+    @Test
+    public void testAsyncLoading() throws Exception {
+        JarClassLoader jc = new JarClassLoader( new String[] { "./target/test-jcl.jar" } );
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        jc.setAsyncExecutor( executor );
+
+        try {
+            // Hold the executor so that the requests are in flight together
+            final CountDownLatch latch = new CountDownLatch( 1 );
+            executor.execute( new Runnable() {
+                public void run() {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            } );
+
+            Future<Class> f1 = jc.loadClassAsync( "org.xeustechnologies.jcl.test.Test" );
+            Future<Class> f2 = jc.loadClassAsync( "org.xeustechnologies.jcl.test.Test" );
+            Future<Class> missing = jc.loadClassAsync( "org.xeustechnologies.jcl.test.Missing" );
+            Future<URL> resource = jc.getResourceAsync( "test/test.properties" );
+            assertSame( f1, f2 );
+            assertFalse( f1.isDone() );
+
+            latch.countDown();
+
+            assertEquals( jc, f1.get().getClassLoader() );
+            assertNotNull( resource.get() );
+            try {
+                missing.get();
+                fail( "Class should not be found" );
+            } catch (ExecutionException e) {
+                assertTrue( e.getCause() instanceof ClassNotFoundException );
+            }
+
+            // Loaded classes are returned without a background task
+            assertTrue( jc.loadClassAsync( "org.xeustechnologies.jcl.test.Test" ).isDone() );
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testAsyncLoadingCallbacks() throws Exception {
+        JarClassLoader jc = new JarClassLoader( new String[] { "./target/test-jcl.jar" } );
+        JarClassLoader other = new JarClassLoader();
+
+        // The default executor is shared
+        assertSame( jc.getAsyncExecutor(), other.getAsyncExecutor() );
+
+        final CountDownLatch latch = new CountDownLatch( 3 );
+        final ConcurrentMap<String, Object> results = new ConcurrentHashMap<String, Object>();
+        LoadCallback<Object> callback = new LoadCallback<Object>() {
+            public void loaded(String name, Object result) {
+                results.put( name, result == null ? "null" : result );
+                latch.countDown();
+            }
+
+            public void failed(String name, Throwable t) {
+                results.put( name, t );
+                latch.countDown();
+            }
+        };
+
+        jc.loadClassAsync( "org.xeustechnologies.jcl.test.Test", callback );
+        jc.loadClassAsync( "org.xeustechnologies.jcl.test.Missing", callback );
+        jc.getResourceAsync( "test/missing.properties", callback );
+        assertTrue( latch.await( 10, TimeUnit.SECONDS ) );
+
+        assertEquals( jc, ( (Class) results.get( "org.xeustechnologies.jcl.test.Test" ) ).getClassLoader() );
+        assertTrue( results.get( "org.xeustechnologies.jcl.test.Missing" ) instanceof ClassNotFoundException );
+        assertEquals( "null", results.get( "test/missing.properties" ) );
+
+        // Completed lookups notify the callback right away
+        results.clear();
+        jc.loadClassAsync( "org.xeustechnologies.jcl.test.Test", callback );
+        assertNotNull( results.get( "org.xeustechnologies.jcl.test.Test" ) );
+    }
+
+    @Test
+    public void testAllocationFreeLookup() throws ClassNotFoundException {
+        JarClassLoader jc = new JarClassLoader( new String[] { "./target/test-jcl.jar" } );
+        assertEquals( "org/xeustechnologies/jcl/test/Test.class",
+                jc.formatClassName( "org.xeustechnologies.jcl.test.Test" ) );
+        assertSame( jc.formatClassName( "org.xeustechnologies.jcl.test.Test" ),
+                jc.formatClassName( "org.xeustechnologies.jcl.test.Test" ) );
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!( threads instanceof com.sun.management.ThreadMXBean )
+                || !( (com.sun.management.ThreadMXBean) threads ).isThreadAllocatedMemorySupported()) {
+            logger.info( "Thread allocation counters not supported, skipping" );
+            return;
+        }
+
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        allocations.setThreadAllocatedMemoryEnabled( true );
+        long thread = Thread.currentThread().getId();
+
+        // Define the class and warm up the lookup
+        for (int i = 0; i < 20000; i++) {
+            jc.loadClass( "org.xeustechnologies.jcl.test.Test" );
+        }
+
+        long before = allocations.getThreadAllocatedBytes( thread );
+        for (int i = 0; i < 10000; i++) {
+            jc.loadClass( "org.xeustechnologies.jcl.test.Test" );
+        }
+        long allocated = allocations.getThreadAllocatedBytes( thread ) - before;
+
+        // Much less than a single object per lookup
+        assertTrue( "Lookups allocated " + allocated + " bytes", allocated < 1024 );
+
+        // Misses, e.g. of system classes, are not cached
+        assertNotSame( jc.formatClassName( "java.lang.String" ), jc.formatClassName( "java.lang.String" ) );
+
+        jc = new JarClassLoader();
+        jc.setClassNameReplacementChar( '_' );
+        assertEquals( "org_xeustechnologies_jcl_test_Test.class",
+                jc.formatClassName( "org.xeustechnologies.jcl.test.Test" ) );
+    }
+
+    @Test
+    public void testPreloadWithReplacementChar() throws Exception {
+        File jar = File.createTempFile( "jcl-replaced", ".jar" );
+        jar.deleteOnExit();
+        ZipOutputStream out = new ZipOutputStream( new FileOutputStream( jar ) );
+        out.putNextEntry( new ZipEntry( "foo_bar_Baz_Impl.class" ) );
+        out.write( new byte[] { 1, 2, 3 } );
+        out.closeEntry();
+        out.putNextEntry( new ZipEntry( "foo/Bar.class" ) );
+        out.write( new byte[] { 1, 2, 3 } );
+        out.closeEntry();
+        out.close();
+
+        JarClassLoader jc = new JarClassLoader();
+        jc.setClassNameReplacementChar( '_' );
+        jc.add( jar.getAbsolutePath() );
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            PreloadResult result = jc.preloadAll( false, false, executor ).get();
+
+            // The '_' of the entry is not mapped back to '.', and entries that
+            // the class names are not mapped to are skipped
+            assertEquals( 1, result.getClassCount() );
+            assertTrue( result.getFailures().containsKey( "foo_bar_Baz_Impl" ) );
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testGenerationReloading() throws Exception {
+        GenerationalClassLoader jc = new GenerationalClassLoader();
+        long id = jc.addGeneration( "./target/test-jcl.jar" ).getId();
+
+        Class c = jc.loadClass( "org.xeustechnologies.jcl.test.Test" );
+        assertSame( jc.getGeneration( "org.xeustechnologies.jcl.test" ).getClassLoader(), c.getClassLoader() );
+
+        WeakReference<Class> oldClass = new WeakReference<Class>( c );
+        WeakReference<ClassLoader> oldLoader = new WeakReference<ClassLoader>( c.getClassLoader() );
+        c = null;
+
+        assertTrue( jc.reload( "org.xeustechnologies.jcl.test" ).getId() > id );
+        Class reloaded = jc.loadClass( "org.xeustechnologies.jcl.test.Test" );
+        assertNotSame( oldClass.get(), reloaded );
+        assertNotNull( reloaded.newInstance() );
+
+        // The retired generation can be collected
+        for (int i = 0; i < 50 && ( oldClass.get() != null || oldLoader.get() != null ); i++) {
+            System.gc();
+            Thread.sleep( 20 );
+        }
+        assertNull( oldClass.get() );
+        assertNull( oldLoader.get() );
+
+        jc.unload( "org.xeustechnologies.jcl.test" );
+        assertNull( jc.getGeneration( "org.xeustechnologies.jcl.test" ) );
+        assertNull( jc.findClassOrNull( "org.xeustechnologies.jcl.test.Missing", false ) );
+    }
+
+    @Test
+    public void testRetiredGenerationResolvesItsOwnClasses() throws Exception {
+        GenerationalClassLoader jc = new GenerationalClassLoader();
+        JarClassLoader old = jc.addGeneration( "./target/test-jcl.jar" ).getClassLoader();
+        jc.reload( "org.xeustechnologies.jcl.test" );
+
+        // Loaded lazily after the reload, from the sources of its generation
+        Class c = old.loadClass( "org.xeustechnologies.jcl.test.Test" );
+        assertSame( old, c.getClassLoader() );
+        assertEquals( 1, jc.getRetiredCount() );
+
+        // The sources are released once the class loader is collected
+        old = null;
+        c = null;
+        for (int i = 0; i < 50 && jc.getRetiredCount() > 0; i++) {
+            System.gc();
+            Thread.sleep( 20 );
+        }
+        assertEquals( 0, jc.getRetiredCount() );
+    }
+
+    @Test
+    public void testLeakDetector() throws Exception {
+        LeakDetector detector = new LeakDetector( 2 );
+        JarClassLoader jc = new JarClassLoader( new String[] { "./target/test-jcl.jar" } );
+        jc.loadClass( "org.xeustechnologies.jcl.test.Test" );
+
+        // A thread that keeps the loader as its context class loader
+        final CountDownLatch latch = new CountDownLatch( 1 );
+        Thread holder = new Thread( "jcl-leak-holder" ) {
+            public void run() {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        holder.setContextClassLoader( jc );
+        holder.start();
+
+        jc.release();
+        detector.track( jc );
+        jc = null;
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+
+        List<LeakDetector.Leak> leaks = detector.check();
+        assertEquals( 1, leaks.size() );
+        assertEquals( 1, detector.getSuspectedLeakCount() );
+        assertTrue( leaks.get( 0 ).getHolders().toString(),
+                leaks.get( 0 ).getHolders().contains( "Thread[jcl-leak-holder] context class loader" ) );
+        leaks = null;
+
+        latch.countDown();
+        holder.join();
+        holder = null;
+
+        for (int i = 0; i < 50 && detector.getTrackedCount() > 0; i++) {
+            System.gc();
+            Thread.sleep( 20 );
+        }
+
+        assertTrue( detector.check().isEmpty() );
+        assertEquals( 0, detector.getSuspectedLeakCount() );
+        assertEquals( 1, detector.getCollectedCount() );
+    }
+
     @Test
     public void testAddingClassSources() throws InstantiationException, IllegalAccessException, ClassNotFoundException {
         JarClassLoader jc = new JarClassLoader();
@@ -159,6 +794,74 @@ public class LoadTest extends TestCase {
         assertNotNull( ti );
     }
 
+    @Test
+    public void testObjectFactoryInvokers() throws Exception {
+        JarClassLoader jc = new JarClassLoader( new String[] { "./target/test-jcl.jar" } );
+        JclObjectFactory factory = JclObjectFactory.getInstance( false );
+        Class c = jc.loadClass( "org.xeustechnologies.jcl.test.Test" );
+
+        Object test = factory.create( jc, "org.xeustechnologies.jcl.test.Test", new Object[] { "Jcl" } );
+        assertEquals( c, test.getClass() );
+        assertEquals( "Jcl", c.getMethod( "getFirstName" ).invoke( test ) );
+
+        // Resolved once per class and signature, then reused
+        test = factory.create( jc, "org.xeustechnologies.jcl.test.Test", new Object[] { "Jcl2" } );
+        assertEquals( "Jcl2", c.getMethod( "getFirstName" ).invoke( test ) );
+
+        // A type of the loader with a JDK class
+        WeakReference ref = (WeakReference) factory.create( jc, "java.lang.ref.WeakReference", test );
+        assertSame( test, ref.get() );
+
+        // Subclass, primitive and null arguments
+        List list = (List) factory.create( jc, "java.util.ArrayList", new LinkedList<String>( Arrays.asList( "a" ) ) );
+        assertEquals( 1, list.size() );
+        assertEquals( 5, factory.create( jc, "java.lang.Integer", "valueOf", 5 ) );
+        test = factory.create( jc, "org.xeustechnologies.jcl.test.Test", (Object) null );
+        assertNull( c.getMethod( "getFirstName" ).invoke( test ) );
+
+        try {
+            factory.create( jc, "org.xeustechnologies.jcl.test.Test", 5 );
+            fail( "No constructor takes an int" );
+        } catch (JclException e) {
+            assertTrue( e.getCause() instanceof NoSuchMethodException );
+        }
+
+        try {
+            factory.create( jc, "java.lang.String", (Object) null );
+            fail( "A null matches several constructors of String" );
+        } catch (JclException e) {
+            assertTrue( e.getMessage().startsWith( "Ambiguous" ) );
+        }
+    }
+
+    @Test
+    public void testInstantiator() throws Exception {
+        JarClassLoader jc = new JarClassLoader( new String[] { "./target/test-jcl.jar" } );
+        JclObjectFactory factory = JclObjectFactory.getInstance( false );
+
+        JclObjectFactory.Instantiator instantiator = factory.instantiator( jc, "org.xeustechnologies.jcl.test.Test",
+                String.class );
+        Class c = instantiator.getType();
+        assertEquals( jc, c.getClassLoader() );
+        assertEquals( 1, instantiator.getArity() );
+
+        for (int i = 0; i < 1000; i++) {
+            Object test = instantiator.newInstance( "Jcl" + i );
+            assertEquals( "Jcl" + i, c.getMethod( "getFirstName" ).invoke( test ) );
+        }
+        assertEquals( "Jcl", c.getMethod( "getFirstName" ).invoke( instantiator.newInstance( new Object[] { "Jcl" } ) ) );
+
+        try {
+            instantiator.newInstance();
+            fail( "The constructor takes an argument" );
+        } catch (JclException e) {
+            // expected
+        }
+
+        Object test = factory.instantiator( jc, "org.xeustechnologies.jcl.test.Test" ).newInstance();
+        assertEquals( "World", c.getMethod( "getFirstName" ).invoke( test ) );
+    }
+
     @Test
     public void testAutoProxy() {
         JarClassLoader jc = new JarClassLoader();
@@ -174,6 +877,24 @@ public class LoadTest extends TestCase {
         assertNotNull( test );
     }
 
+    @Test
+    public void testAutoProxyWithJdkProxies() {
+        JarClassLoader jc = new JarClassLoader( new String[] { "./target/test-jcl.jar" } );
+        ProxyProviderFactory.setDefaultProxyProvider( new JdkProxyProvider() );
+        JclObjectFactory factory = JclObjectFactory.getInstance( true );
+
+        try {
+            // The proxies implement the interfaces found in the current
+            // classloader, resolved once for the class
+            for (int i = 0; i < 3; i++) {
+                TestInterface test = (TestInterface) factory.create( jc, "org.xeustechnologies.jcl.test.Test" );
+                assertEquals( "Hello World ", test.sayHello() );
+            }
+        } finally {
+            JclObjectFactory.getInstance( false );
+        }
+    }
+
     @Test
     public void testUnloading() throws IOException, InstantiationException, IllegalAccessException,
             ClassNotFoundException, IllegalArgumentException, SecurityException, InvocationTargetException,
@@ -0,0 +1,45 @@
+package org.xeustechnologies.jcl.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * Checks that WildcardMatcher agrees with the regular expressions built by
+ * Utils.wildcardToRegex
+ */
+public class WildcardMatcherTest {
+
+	private static final String[] WILDCARDS = { "com.sun.*", "org.xeustechnologies.jcl.test.*", "sun.misc.Unsafe",
+			"javax.*.spi.*", "org.?pache.*", "*Proxy", "Org.W3C.*" };
+
+	private static final String[] NAMES = { "com.sun.Foo", "com.sun.", "com.sun", "COM.SUN.foo", "com.sunx.Foo",
+			"org.xeustechnologies.jcl.test.Test", "org.xeustechnologies.jcl.Test", "sun.misc.Unsafe",
+			"sun.misc.UnsafeX", "sun.misc", "javax.xml.spi.Provider", "javax.spi.X", "org.apache.Foo", "org.Apache.X",
+			"org.aapache.Foo", "$Proxy", "com.foo.MyProxy", "com.foo.MyProxyX", "org.w3c.dom.Node", "", "java/lang" };
+
+	@Test
+	public void testMatchesLikeRegex() {
+		WildcardMatcher matcher = new WildcardMatcher(WILDCARDS);
+
+		for (String name : NAMES) {
+			boolean expected = false;
+			for (String w : WILDCARDS) {
+				if (Pattern.compile(Utils.wildcardToRegex(w), Pattern.CASE_INSENSITIVE).matcher(name).find()) {
+					expected = true;
+				}
+			}
+
+			assertEquals(name, expected, matcher.matches(name));
+		}
+	}
+
+	@Test
+	public void testNoPatterns() {
+		assertFalse(new WildcardMatcher(null).matches("com.sun.Foo"));
+		assertFalse(new WildcardMatcher(new String[0]).matches(""));
+	}
+}